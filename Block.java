@@ -1,14 +1,20 @@
 import java.awt.Color;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author clairewalker
  *
  */
 public class Block implements IBlock {
-	private Point topLeft;
-	private Point botRight;
+	// the bounds are kept as plain ints, so moves rewrite them without allocating
+	// and no caller can hold on to them and see them change
+	private int topLeftX;
+	private int topLeftY;
+	private int botRightX;
+	private int botRightY;
 	private int depth;
 	private Block parent;
 	private Block topLeftTree;
@@ -16,6 +22,11 @@ public class Block implements IBlock {
 	private Block topRightTree;
 	private Block botRightTree;
 	private Color color;
+	// the game whose block index this block belongs to, or null for a free-standing
+	// tree. children inherit it from their parent
+	private Game game;
+	// the position of this block within its level of the game's bfs index
+	private int levelPos;
 
 	/**
 	 * @param topLeft
@@ -24,10 +35,25 @@ public class Block implements IBlock {
 	 * @param parent
 	 */
 	public Block(Point topLeft, Point botRight, int depth, Block parent) {
-		this.topLeft = topLeft;
-		this.botRight = botRight;
+		this(topLeft.getX(), topLeft.getY(), botRight.getX(), botRight.getY(), depth, parent);
+	}
+
+	/**
+	 * @param topLeftX  the x coordinate of the top left point
+	 * @param topLeftY  the y coordinate of the top left point
+	 * @param botRightX the x coordinate of the bottom right point
+	 * @param botRightY the y coordinate of the bottom right point
+	 * @param depth
+	 * @param parent
+	 */
+	private Block(int topLeftX, int topLeftY, int botRightX, int botRightY, int depth, Block parent) {
+		this.topLeftX = topLeftX;
+		this.topLeftY = topLeftY;
+		this.botRightX = botRightX;
+		this.botRightY = botRightY;
 		this.depth = depth;
 		this.parent = parent;
+		this.game = parent == null ? null : parent.game;
 		topLeftTree = null;
 		botLeftTree = null;
 		topRightTree = null;
@@ -41,46 +67,126 @@ public class Block implements IBlock {
 
 	@Override
 	public void smash(int maxDepth) {
+		// draw the new colors from the owning game's random source, if there is one
+		smash(maxDepth, game == null ? null : game.getRandom());
+	}
+
+	/**
+	 * smash this block into 4 sub blocks with colors drawn from random, so that a
+	 * seeded random source replays the same board
+	 * 
+	 * @param maxDepth the max depth of this board/quadtree
+	 * @param random   the source of the new colors, or null to use the current
+	 *                 thread's shared random source
+	 */
+	void smash(int maxDepth, SplittableRandom random) {
 		// if we are already at maxdepth, or the block isn't a leaf, do nothing
 		if (!this.isleaf() || this.depth == maxDepth) {
 			return;
 		}
 
-		// update this block's color to null
+		// select a random color from Colors array for each new child
+		Color topLeftColor = COLORS[randomColorIndex(random)];
+		Color botLeftColor = COLORS[randomColorIndex(random)];
+		Color topRightColor = COLORS[randomColorIndex(random)];
+		Color botRightColor = COLORS[randomColorIndex(random)];
+		smash(maxDepth, topLeftColor, topRightColor, botRightColor, botLeftColor);
+	}
+
+	/**
+	 * smash this block into 4 sub blocks of the given colors, so that a recorded
+	 * smash can be replayed exactly
+	 * 
+	 * @param maxDepth      the max depth of this board/quadtree
+	 * @param topLeftColor  the color of the new top left child
+	 * @param topRightColor the color of the new top right child
+	 * @param botRightColor the color of the new bottom right child
+	 * @param botLeftColor  the color of the new bottom left child
+	 */
+	void smash(int maxDepth, Color topLeftColor, Color topRightColor, Color botRightColor, Color botLeftColor) {
+		// if we are already at maxdepth, or the block isn't a leaf, do nothing
+		if (!this.isleaf() || this.depth == maxDepth) {
+			return;
+		}
+
+		// let the owning game take this block's share out of its score
+		if (game != null) {
+			game.blockChanging(this);
+		}
+
+		// update this block's color to null, keeping the old one for the game's
+		// journal
+		Color oldColor = this.color;
 		this.color = null;
 
-		// create top left and bottom right points for the block's new topLeftTree
-		Point topL1 = new Point(topLeft.getX(), topLeft.getY());
-		Point botR1 = new Point((topLeft.getX() + botRight.getX()) / 2, (topLeft.getY() + botRight.getY()) / 2);
-		// create top left and bottom right points for the block's new topRightTree
-		Point topL2 = new Point((topLeft.getX() + botRight.getX()) / 2, topLeft.getY());
-		Point botR2 = new Point(botRight.getX(), (topLeft.getY() + botRight.getY()) / 2);
-		// create top left and bottom right points for the block's new botRightTree
-		Point topL3 = new Point((topLeft.getX() + botRight.getX()) / 2, (topLeft.getY() + botRight.getY()) / 2);
-		Point botR3 = new Point(botRight.getX(), botRight.getY());
-		// create top left and bottom right points for the block's new botLeftTree
-		Point topL4 = new Point(topLeft.getX(), (topLeft.getY() + botRight.getY()) / 2);
-		Point botR4 = new Point((topLeft.getX() + botRight.getX()) / 2, botRight.getY());
-
-		// assign this block's topLeftTree to a new Block using the points calculated
-		// above
+		// the middle of this block, where its children meet
+		int midX = (topLeftX + botRightX) / 2;
+		int midY = (topLeftY + botRightY) / 2;
+
+		// assign this block's topLeftTree to a new Block covering its top left quarter
 		// depth is one more than this block's depth, and this block is its parent block
-		topLeftTree = new Block(topL1, botR1, this.depth + 1, this);
-		// select a random color from Colors array
-		int colorSelector = (int) (Math.random() * COLORS.length);
-		// assign topLeftTree color to this color
-		topLeftTree.color = COLORS[colorSelector];
+		topLeftTree = new Block(topLeftX, topLeftY, midX, midY, this.depth + 1, this);
+		// assign topLeftTree its color
+		topLeftTree.color = topLeftColor;
 
 		// repeat these steps for the remaining children of this block
-		botLeftTree = new Block(topL4, botR4, this.depth + 1, this);
-		colorSelector = (int) (Math.random() * COLORS.length);
-		botLeftTree.color = COLORS[colorSelector];
-		topRightTree = new Block(topL2, botR2, this.depth + 1, this);
-		colorSelector = (int) (Math.random() * COLORS.length);
-		topRightTree.color = COLORS[colorSelector];
-		botRightTree = new Block(topL3, botR3, this.depth + 1, this);
-		colorSelector = (int) (Math.random() * COLORS.length);
-		botRightTree.color = COLORS[colorSelector];
+		botLeftTree = new Block(topLeftX, midY, midX, botRightY, this.depth + 1, this);
+		botLeftTree.color = botLeftColor;
+		topRightTree = new Block(midX, topLeftY, botRightX, midY, this.depth + 1, this);
+		topRightTree.color = topRightColor;
+		botRightTree = new Block(midX, midY, botRightX, botRightY, this.depth + 1, this);
+		botRightTree.color = botRightColor;
+
+		// let the owning game insert the new children into its block index and score
+		// them
+		if (game != null) {
+			game.blockSmashed(this, oldColor);
+		}
+	}
+
+	/**
+	 * undo a smash: drop this block's four children, which must all be leaves, and
+	 * make it a leaf of the given color again
+	 * 
+	 * @param c the color this block had before it was smashed
+	 */
+	void unsmash(Color c) {
+		// if this block is a leaf, or any child has been smashed since, do nothing
+		if (this.isleaf() || !topLeftTree.isleaf() || !topRightTree.isleaf() || !botRightTree.isleaf()
+				|| !botLeftTree.isleaf()) {
+			return;
+		}
+
+		// let the owning game take this block's share out of its score
+		if (game != null) {
+			game.blockChanging(this);
+		}
+
+		// the children are laid out clockwise from the top left one in the game's
+		// block index
+		Block firstChild = topLeftTree;
+		topLeftTree = null;
+		topRightTree = null;
+		botRightTree = null;
+		botLeftTree = null;
+		this.color = c;
+
+		// let the owning game drop the children from its block index and rescore this
+		// block
+		if (game != null) {
+			game.blockUnsmashed(this, firstChild);
+		}
+	}
+
+	/**
+	 * @param random a random source, or null for the current thread's
+	 * @return a random index into COLORS
+	 */
+	private static int randomColorIndex(SplittableRandom random) {
+		if (random == null) {
+			return ThreadLocalRandom.current().nextInt(COLORS.length);
+		}
+		return random.nextInt(COLORS.length);
 	}
 
 	@Override
@@ -110,6 +216,11 @@ public class Block implements IBlock {
 			return;
 		}
 
+		// let the owning game take this block's share out of its score
+		if (game != null) {
+			game.blockChanging(this);
+		}
+
 		// rotate the pointers of this block's children
 		Block temp = topLeftTree;
 		topLeftTree = botLeftTree;
@@ -117,10 +228,15 @@ public class Block implements IBlock {
 		botRightTree = topRightTree;
 		topRightTree = temp;
 
-		// call update points to recursively update the top left and bottom right points
-		// for this block's subtree
-		updatePoints(this.children());
+		// recursively update the top left and bottom right points for this block's
+		// subtree
+		updateChildPoints();
 
+		// let the owning game reorder this block's subtree in its block index and
+		// score it at its new place
+		if (game != null) {
+			game.blockRotated(this);
+		}
 	}
 
 	/**
@@ -169,60 +285,91 @@ public class Block implements IBlock {
 	 *             children of an IBlock and every block in the children's subtrees
 	 */
 	public void updatePoints(List<IBlock> kids) {
+		// get the parent block for this list of child blocks and update from there
+		((Block) kids.get(0)).parent.updateChildPoints();
+	}
 
-		// get the parent block for this list of child blocks
-		Block parentBlock = ((Block) kids.get(0)).parent;
-		// get the x and y coordinates for the parent's top left point
-		int parentTopLX = parentBlock.getTopLeft().getX();
-		int parentTopLY = parentBlock.getTopLeft().getY();
-		// get the x and y coordinates for the parent's bottom right point
-		int parentBotRX = parentBlock.getBotRight().getX();
-		int parentBotRY = parentBlock.getBotRight().getY();
-
-		// update the topLeftTree's top left and bottom right points based on the parent
-		// blocks points
-		((Block) kids.get(0)).setTopLeft(parentTopLX, parentTopLY);
-		((Block) kids.get(0)).setBotRight((parentTopLX + parentBotRX) / 2, (parentTopLY + parentBotRY) / 2);
-
-		// update the topRightTree's top left and bottom right points based on the
-		// parent blocks points
-		((Block) kids.get(1)).setTopLeft((parentTopLX + parentBotRX) / 2, parentTopLY);
-		((Block) kids.get(1)).setBotRight(parentBotRX, (parentTopLY + parentBotRY) / 2);
-
-		// update the botRightTree's top left and bottom right points based on the
-		// parent blocks points
-		((Block) kids.get(2)).setTopLeft((parentTopLX + parentBotRX) / 2, (parentTopLY + parentBotRY) / 2);
-		((Block) kids.get(2)).setBotRight(parentBotRX, parentBotRY);
-
-		// update the botLeftTree's top left and bottom right points based on the parent
-		// blocks points
-		((Block) kids.get(3)).setTopLeft(parentTopLX, (parentTopLY + parentBotRY) / 2);
-		((Block) kids.get(3)).setBotRight((parentTopLX + parentBotRX) / 2, parentBotRY);
-
-		// if the topLeftTree is a leaf, recursively update points for its children
-		// blocks
-		if (!kids.get(0).isleaf()) {
-			updatePoints(kids.get(0).children());
+	/**
+	 * Recursively updates the top left and bottom right points of this block's
+	 * children and of every block in their subtrees. The bounds are plain ints, so
+	 * this allocates nothing however deep the subtree is.
+	 */
+	void updateChildPoints() {
+		// get the x and y coordinates for this block's top left and bottom right
+		// points, and for its middle
+		int topLX = topLeftX;
+		int topLY = topLeftY;
+		int botRX = botRightX;
+		int botRY = botRightY;
+		int midX = (topLX + botRX) / 2;
+		int midY = (topLY + botRY) / 2;
+
+		// update each child's top left and bottom right points based on this block's
+		// points
+		topLeftTree.setTopLeft(topLX, topLY);
+		topLeftTree.setBotRight(midX, midY);
+		topRightTree.setTopLeft(midX, topLY);
+		topRightTree.setBotRight(botRX, midY);
+		botRightTree.setTopLeft(midX, midY);
+		botRightTree.setBotRight(botRX, botRY);
+		botLeftTree.setTopLeft(topLX, midY);
+		botLeftTree.setBotRight(midX, botRY);
+
+		// if a child is not a leaf, recursively update points for its children blocks
+		if (!topLeftTree.isleaf()) {
+			topLeftTree.updateChildPoints();
 		}
-
-		// if the topRightTree is a leaf, recursively update points for its children
-		// blocks
-		if (!kids.get(1).isleaf()) {
-			updatePoints(kids.get(1).children());
+		if (!topRightTree.isleaf()) {
+			topRightTree.updateChildPoints();
 		}
-
-		// if the botRightTree is a leaf, recursively update points for its children
-		// blocks
-		if (!kids.get(2).isleaf()) {
-			updatePoints(kids.get(2).children());
+		if (!botRightTree.isleaf()) {
+			botRightTree.updateChildPoints();
+		}
+		if (!botLeftTree.isleaf()) {
+			botLeftTree.updateChildPoints();
 		}
+	}
 
-		// if the botLeftTree is a leaf, recursively update points for its children
-		// blocks
-		if (!kids.get(3).isleaf()) {
-			updatePoints(kids.get(3).children());
+	/**
+	 * @param c a color
+	 * @return the index of c in {@link IBlock#COLORS}, or -1 if it is not one of
+	 *         them
+	 */
+	static int colorIndex(Color c) {
+		for (int i = 0; i < COLORS.length; i++) {
+			if (COLORS[i].equals(c)) {
+				return i;
+			}
 		}
+		return -1;
+	}
+
+	/**
+	 * @return the game whose block index this block belongs to, or null
+	 */
+	Game getGame() {
+		return this.game;
+	}
+
+	/**
+	 * @param g the game whose block index this block now belongs to
+	 */
+	void setGame(Game g) {
+		this.game = g;
+	}
+
+	/**
+	 * @return the position of this block within its level of the game's index
+	 */
+	int getLevelPos() {
+		return this.levelPos;
+	}
 
+	/**
+	 * @param p the position of this block within its level of the game's index
+	 */
+	void setLevelPos(int p) {
+		this.levelPos = p;
 	}
 
 	@Override
@@ -237,40 +384,107 @@ public class Block implements IBlock {
 			return;
 		}
 
-		// else, set this block's color to c
+		// else, set this block's color to c, letting the owning game rescore it
+		if (game != null) {
+			game.blockChanging(this);
+		}
+		Color oldColor = this.color;
 		this.color = c;
+		if (game != null) {
+			game.blockRecolored(this, oldColor);
+		}
 	}
 
 	@Override
 	public Point getTopLeft() {
-		return topLeft;
+		// a fresh point, so changing it does not move this block
+		return new Point(topLeftX, topLeftY);
 	}
 
 	private void setTopLeft(int x, int y) {
-		// if x or y are outside the range of the board's points, do nothing
-		if (x < 0 || y < 0 || x > 8 || y > 8) {
+		// if x or y are negative they are off the board, do nothing. the board's extent
+		// depends on its max depth, so there is no fixed upper bound
+		if (x < 0 || y < 0) {
 			return;
 		}
-		// create a new point with x and y coordinates
-		Point p = new Point(x, y);
-		// set topLeft to this point
-		this.topLeft = p;
+		this.topLeftX = x;
+		this.topLeftY = y;
 	}
 
 	private void setBotRight(int x, int y) {
-		// if x or y are outside the range of the board's points, do nothing
-		if (x < 0 || y < 0 || x > 8 || y > 8) {
+		// if x or y are negative they are off the board, do nothing. the board's extent
+		// depends on its max depth, so there is no fixed upper bound
+		if (x < 0 || y < 0) {
 			return;
 		}
-		// create a new point with x and y coordinates
-		Point p = new Point(x, y);
-		// set botRight to this point
-		this.botRight = p;
+		this.botRightX = x;
+		this.botRightY = y;
 	}
 
 	@Override
 	public Point getBotRight() {
-		return botRight;
+		// a fresh point, so changing it does not move this block
+		return new Point(botRightX, botRightY);
+	}
+
+	/**
+	 * @return the x coordinate of the top left point, without making a Point
+	 */
+	int x0() {
+		return topLeftX;
+	}
+
+	/**
+	 * @return the y coordinate of the top left point, without making a Point
+	 */
+	int y0() {
+		return topLeftY;
+	}
+
+	/**
+	 * @return the x coordinate of the bottom right point, without making a Point
+	 */
+	int x1() {
+		return botRightX;
+	}
+
+	/**
+	 * @return the y coordinate of the bottom right point, without making a Point
+	 */
+	int y1() {
+		return botRightY;
+	}
+
+	/**
+	 * @return the x coordinate of b's top left point, read without making a Point
+	 *         if b is a Block
+	 */
+	static int x0(IBlock b) {
+		return b instanceof Block ? ((Block) b).topLeftX : b.getTopLeft().getX();
+	}
+
+	/**
+	 * @return the y coordinate of b's top left point, read without making a Point
+	 *         if b is a Block
+	 */
+	static int y0(IBlock b) {
+		return b instanceof Block ? ((Block) b).topLeftY : b.getTopLeft().getY();
+	}
+
+	/**
+	 * @return the x coordinate of b's bottom right point, read without making a
+	 *         Point if b is a Block
+	 */
+	static int x1(IBlock b) {
+		return b instanceof Block ? ((Block) b).botRightX : b.getBotRight().getX();
+	}
+
+	/**
+	 * @return the y coordinate of b's bottom right point, read without making a
+	 *         Point if b is a Block
+	 */
+	static int y1(IBlock b) {
+		return b instanceof Block ? ((Block) b).botRightY : b.getBotRight().getY();
 	}
 
 	@Override
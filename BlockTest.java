@@ -1,6 +1,31 @@
 import static org.junit.Assert.*;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import javax.imageio.ImageIO;
 
 import org.junit.Test;
 
@@ -168,7 +193,9 @@ public class BlockTest {
 	}
 
 	/**
-	 * Tests the setX correctly resets X coordinate of a point
+	 * Tests the setX correctly resets X coordinate of a point, and that a
+	 * block keeps its own bounds rather than the points it was built from or the
+	 * ones it hands out
 	 */
 	@Test
 	public void testPointSetX() {
@@ -176,11 +203,16 @@ public class BlockTest {
 		Point P2 = new Point(8, 8);
 		IBlock b = new Block(P1, P2, 0, null);
 		P1.setX(1);
-		assertEquals(1, b.getTopLeft().getX());
+		assertEquals(1, P1.getX());
+		assertEquals(0, b.getTopLeft().getX());
+		b.getTopLeft().setX(2);
+		assertEquals(0, b.getTopLeft().getX());
 	}
 
 	/**
-	 * Tests that setY correctly resets Y coordinate of a point
+	 * Tests that setY correctly resets Y coordinate of a point, and that a
+	 * block keeps its own bounds rather than the points it was built from or the
+	 * ones it hands out
 	 */
 	@Test
 	public void testPointSetY() {
@@ -188,7 +220,10 @@ public class BlockTest {
 		Point P2 = new Point(8, 8);
 		IBlock b = new Block(P1, P2, 0, null);
 		P1.setY(1);
-		assertEquals(1, b.getTopLeft().getY());
+		assertEquals(1, P1.getY());
+		assertEquals(0, b.getTopLeft().getY());
+		b.getTopLeft().setY(2);
+		assertEquals(0, b.getTopLeft().getY());
 	}
 
 	/**
@@ -432,4 +467,1486 @@ public class BlockTest {
 		assertNull(rt.getColor());
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Applies random sequences of swaps, rotates and smashes to random boards and
+	 * checks after every operation that getBlock returns the blocks in the same
+	 * order as a full breadth first search of the tree
+	 */
+	@Test
+	public void testBlockIndexMatchesBfs() {
+		Random rnd = new Random(42);
+		for (int maxDepth = 1; maxDepth <= 5; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE);
+			assertIndexMatchesBfs(g);
+			for (int move = 0; move < 300; move++) {
+				int blocks = g.bfs().size();
+				int op = rnd.nextInt(3);
+				if (op == 0) {
+					g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+				} else if (op == 1) {
+					g.getBlock(rnd.nextInt(blocks)).rotate();
+				} else {
+					g.getBlock(rnd.nextInt(blocks)).smash(maxDepth);
+				}
+				assertIndexMatchesBfs(g);
+			}
+		}
+	}
+
+	/**
+	 * Checks that flattenInto writes the palette index of the same block that
+	 * flatten puts in every cell, reusing one grid across boards and moves
+	 */
+	@Test
+	public void testFlattenIntoMatchesFlatten() {
+		Random rnd = new Random(5);
+		for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE);
+			int size = 1 << maxDepth;
+			int[] grid = new int[size * size];
+			for (int move = 0; move < 20; move++) {
+				int blocks = g.bfs().size();
+				g.getBlock(rnd.nextInt(blocks)).rotate();
+				g.getBlock(rnd.nextInt(blocks)).smash(maxDepth);
+				g.flattenInto(grid);
+				IBlock[][] board = g.flatten();
+				for (int row = 0; row < size; row++) {
+					for (int col = 0; col < size; col++) {
+						assertEquals(IBlock.COLORS[grid[row * size + col]], board[row][col].getColor());
+					}
+				}
+			}
+		}
+
+		// a color outside the palette is written as -1
+		IBlock b = new Block(new Point(0, 0), new Point(2, 2), 0, null);
+		b.smash(1);
+		b.getTopLeftTree().setColor(Color.BLACK);
+		Game g = new Game(1, Color.BLUE);
+		g.setRoot(b);
+		int[] grid = new int[4];
+		g.flattenInto(grid);
+		assertEquals(-1, grid[0]);
+	}
+
+	/**
+	 * Applies random swaps, rotates, smashes and color changes to random boards and
+	 * checks after every operation that the cached perimeter score matches one
+	 * counted from the flattened board
+	 */
+	@Test
+	public void testPerimeterScoreCache() {
+		Random rnd = new Random(11);
+		for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE);
+			assertEquals(flatScore(g, Color.BLUE), g.perimeter_score());
+			for (int move = 0; move < 300; move++) {
+				int blocks = g.bfs().size();
+				int op = rnd.nextInt(4);
+				IBlock b = g.getBlock(rnd.nextInt(blocks));
+				if (op == 0) {
+					g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+				} else if (op == 1) {
+					b.rotate();
+				} else if (op == 2) {
+					b.smash(maxDepth);
+				} else {
+					b.setColor(IBlock.COLORS[rnd.nextInt(IBlock.COLORS.length)]);
+				}
+				assertEquals(flatScore(g, Color.BLUE), g.perimeter_score());
+			}
+			assertEquals(flatScore(g, Color.BLUE), g.recompute_perimeter_score());
+		}
+	}
+
+	/**
+	 * Counts the perimeter score of g cell by cell from its flattened board
+	 */
+	private int flatScore(IGame g, Color target) {
+		IBlock[][] board = g.flatten();
+		int n = board.length;
+		int score = 0;
+		for (int i = 0; i < n; i++) {
+			score += target.equals(board[0][i].getColor()) ? 1 : 0;
+			score += target.equals(board[n - 1][i].getColor()) ? 1 : 0;
+			score += target.equals(board[i][0].getColor()) ? 1 : 0;
+			score += target.equals(board[i][n - 1].getColor()) ? 1 : 0;
+		}
+		return score;
+	}
+
+	/**
+	 * Loads the same tree into a Game and a CompactGame, applies the same random
+	 * swaps, rotates, smashes and color changes to both by block id, and checks
+	 * that they agree on every block, the flattened board and the score
+	 */
+	@Test
+	public void testCompactGameMatchesGame() {
+		Random rnd = new Random(9);
+		for (int maxDepth = 1; maxDepth <= 5; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE);
+			CompactGame c = new CompactGame(maxDepth, Color.BLUE);
+			c.setRoot(g.getRoot());
+			for (int move = 0; move < 200; move++) {
+				int blocks = g.bfs().size();
+				int id = rnd.nextInt(blocks);
+				int op = rnd.nextInt(4);
+				if (op == 0) {
+					int other = rnd.nextInt(blocks);
+					g.swap(id, other);
+					c.swap(id, other);
+				} else if (op == 1) {
+					g.getBlock(id).rotate();
+					c.getBlock(id).rotate();
+				} else if (op == 2) {
+					// the new children get random colors, so copy them across
+					g.getBlock(id).smash(maxDepth);
+					c.getBlock(id).smash(maxDepth);
+					List<IBlock> gKids = g.getBlock(id).children();
+					List<IBlock> cKids = c.getBlock(id).children();
+					for (int i = 0; i < gKids.size(); i++) {
+						cKids.get(i).setColor(gKids.get(i).getColor());
+					}
+				} else {
+					Color color = IBlock.COLORS[rnd.nextInt(IBlock.COLORS.length)];
+					g.getBlock(id).setColor(color);
+					c.getBlock(id).setColor(color);
+				}
+
+				for (int i = 0; i <= blocks + 4; i++) {
+					IBlock gb = g.getBlock(i);
+					IBlock cb = c.getBlock(i);
+					if (gb == null) {
+						assertNull(cb);
+						continue;
+					}
+					assertEquals(gb.depth(), cb.depth());
+					assertEquals(gb.isleaf(), cb.isleaf());
+					assertEquals(gb.getColor(), cb.getColor());
+					assertEquals(gb.getTopLeft().toString(), cb.getTopLeft().toString());
+					assertEquals(gb.getBotRight().toString(), cb.getBotRight().toString());
+				}
+				assertEquals(g.perimeter_score(), c.perimeter_score());
+			}
+			IBlock[][] gBoard = g.flatten();
+			IBlock[][] cBoard = c.flatten();
+			for (int row = 0; row < gBoard.length; row++) {
+				for (int col = 0; col < gBoard.length; col++) {
+					assertEquals(gBoard[row][col].getColor(), cBoard[row][col].getColor());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies swaps of blocks of the same depth and rotates of internal blocks, the
+	 * moves that reorder the level index, to a Game and a CompactGame and checks
+	 * that every block id still finds the same block and the scores agree
+	 */
+	@Test
+	public void testCompactGameIndexFollowsMoves() {
+		Random rnd = new Random(12);
+		for (int maxDepth = 2; maxDepth <= 6; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE, 40L + maxDepth);
+			CompactGame c = new CompactGame(maxDepth, Color.BLUE);
+			c.setRoot(g.getRoot());
+			for (int move = 0; move < 100; move++) {
+				List<IBlock> blocks = new ArrayList<IBlock>(g.bfs());
+				int id = rnd.nextInt(blocks.size());
+				if (move % 2 == 0) {
+					// swap with another block of the same depth
+					List<Integer> sameDepth = new ArrayList<Integer>();
+					for (int i = 1; i < blocks.size(); i++) {
+						if (i != id && blocks.get(i).depth() == blocks.get(id).depth()) {
+							sameDepth.add(i);
+						}
+					}
+					if (id > 0 && !sameDepth.isEmpty()) {
+						int other = sameDepth.get(rnd.nextInt(sameDepth.size()));
+						g.swap(id, other);
+						c.swap(id, other);
+					}
+				} else if (!blocks.get(id).isleaf()) {
+					g.getBlock(id).rotate();
+					c.getBlock(id).rotate();
+				}
+
+				for (int i = 0; i < blocks.size(); i++) {
+					IBlock gb = g.getBlock(i);
+					IBlock cb = c.getBlock(i);
+					assertEquals(gb.depth(), cb.depth());
+					assertEquals(gb.getColor(), cb.getColor());
+					assertEquals(gb.getTopLeft().toString(), cb.getTopLeft().toString());
+				}
+				assertNull(c.getBlock(blocks.size()));
+				assertEquals(g.perimeter_score(), c.perimeter_score());
+				assertEquals(flatScore(c, Color.BLUE), c.perimeter_score());
+			}
+		}
+	}
+
+	/**
+	 * Tests that giving a CompactGame its own root, after moves have mixed up its
+	 * handles, keeps the board as it is
+	 */
+	@Test
+	public void testCompactGameSetOwnRoot() {
+		for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+			CompactGame c = new CompactGame(maxDepth, Color.BLUE, new SplittableRandom(50L + maxDepth));
+			for (int id = 0; id < 20; id++) {
+				c.getBlock(id % c.blockCount()).smash(maxDepth);
+				c.swap(1, 2);
+			}
+			List<String> before = new ArrayList<String>();
+			for (int id = 0; id < c.blockCount(); id++) {
+				IBlock b = c.getBlock(id);
+				before.add(b.depth() + " " + b.getTopLeft() + " " + b.getBotRight() + " " + b.getColor());
+			}
+			int blocks = c.blockCount();
+			int score = c.perimeter_score();
+
+			c.setRoot(c.getRoot());
+			assertEquals(blocks, c.blockCount());
+			assertEquals(score, c.perimeter_score());
+			for (int id = 0; id < blocks; id++) {
+				IBlock b = c.getBlock(id);
+				assertEquals(before.get(id), b.depth() + " " + b.getTopLeft() + " " + b.getBotRight() + " " + b.getColor());
+			}
+			assertNull(c.getBlock(blocks));
+			assertEquals(flatScore(c, Color.BLUE), c.perimeter_score());
+		}
+	}
+
+	/**
+	 * Tests that a CompactGame takes more colors than fit in a byte, and refuses
+	 * new colors once its palette is full
+	 */
+	@Test
+	public void testCompactGamePalette() {
+		CompactGame c = new CompactGame(1, Color.BLUE);
+		IBlock leaf = c.getBlock(1);
+		for (int i = 0; i < 300; i++) {
+			Color color = new Color(0x010000 + i);
+			leaf.setColor(color);
+			assertEquals(color, leaf.getColor());
+		}
+		leaf.setColor(Color.BLUE);
+		assertEquals(Color.BLUE, leaf.getColor());
+
+		for (int i = 300; i < CompactGame.MAX_COLORS - IBlock.COLORS.length; i++) {
+			leaf.setColor(new Color(0x010000 + i));
+		}
+		// colors already in the palette can still be given out
+		leaf.setColor(new Color(0x010000 + 299));
+		try {
+			leaf.setColor(new Color(0x123456));
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(new Color(0x010000 + 299), leaf.getColor());
+	}
+
+	/**
+	 * Checks that two games created with the same seed build identical trees, and
+	 * stay identical through the same smashes
+	 */
+	@Test
+	public void testSameSeedSameTree() {
+		for (int maxDepth = 1; maxDepth <= 10; maxDepth++) {
+			Game g1 = new Game(maxDepth, Color.BLUE, 1234L + maxDepth);
+			Game g2 = new Game(maxDepth, Color.BLUE, 1234L + maxDepth);
+			assertSameTree(g1, g2);
+			for (int id = 0; id < 20; id++) {
+				g1.getBlock(id % g1.bfs().size()).smash(maxDepth);
+				g2.getBlock(id % g2.bfs().size()).smash(maxDepth);
+			}
+			g1.random_init();
+			g2.random_init();
+			assertSameTree(g1, g2);
+		}
+	}
+
+	/**
+	 * Checks that random_init builds a well formed tree, every block covering its
+	 * quadrant of its parent, no leaf below max depth and the block index in bfs
+	 * order, and that it smashes as many blocks on average as the old random_init,
+	 * which drew any block and retried until it drew a leaf
+	 */
+	@Test
+	public void testRandomInitWellFormed() {
+		for (int maxDepth = 1; maxDepth <= 8; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE, 60L + maxDepth);
+			int deepest = 0;
+			for (IBlock b : g.bfs()) {
+				assertTrue(b.depth() <= maxDepth);
+				if (b.isleaf()) {
+					assertNotNull(b.getColor());
+					deepest = Math.max(deepest, b.depth());
+					continue;
+				}
+				assertNull(b.getColor());
+				int half = (b.getBotRight().getX() - b.getTopLeft().getX()) / 2;
+				assertEquals(b.getTopLeft().toString(), b.getTopLeftTree().getTopLeft().toString());
+				assertEquals(b.getBotRight().toString(), b.getBotRightTree().getBotRight().toString());
+				assertEquals(half, b.getTopRightTree().getBotRight().getX() - b.getTopRightTree().getTopLeft().getX());
+				for (IBlock kid : b.children()) {
+					assertEquals(b.depth() + 1, kid.depth());
+				}
+			}
+			// it stops once a block one level above max depth has been smashed
+			assertEquals(maxDepth, deepest);
+			assertIndexMatchesBfs(g);
+			assertEquals(g.recompute_perimeter_score(), g.perimeter_score());
+		}
+
+		// the mean number of blocks of a board, over many seeds, against the old way
+		Random rnd = new Random(61);
+		int boards = 2000;
+		for (int maxDepth = 2; maxDepth <= 5; maxDepth++) {
+			long blocks = 0;
+			long oldBlocks = 0;
+			for (int i = 0; i < boards; i++) {
+				blocks += new Game(maxDepth, Color.BLUE, rnd.nextLong()).bfs().size();
+				oldBlocks += oldRandomInitBlocks(maxDepth, rnd);
+			}
+			double mean = (double) blocks / boards;
+			double oldMean = (double) oldBlocks / boards;
+			assertTrue(maxDepth + ": " + mean + " vs " + oldMean, Math.abs(mean - oldMean) < 0.05 * oldMean);
+		}
+	}
+
+	/**
+	 * Builds the shape of a board as random_init used to, drawing any block and
+	 * smashing it if it is a leaf, until a block one level above max depth has
+	 * been smashed
+	 *
+	 * @return the number of blocks of the board
+	 */
+	private int oldRandomInitBlocks(int maxDepth, Random rnd) {
+		// the depth of every block, or -1 once it has been smashed
+		List<Integer> depths = new ArrayList<Integer>();
+		depths.add(-1);
+		for (int i = 0; i < 4; i++) {
+			depths.add(1);
+		}
+		int depthReached = 1;
+		while (depthReached < maxDepth) {
+			int block = rnd.nextInt(depths.size());
+			int depth = depths.get(block);
+			if (depth >= 0) {
+				depths.set(block, -1);
+				for (int i = 0; i < 4; i++) {
+					depths.add(depth + 1);
+				}
+				depthReached = depth + 1;
+			}
+		}
+		return depths.size();
+	}
+
+	/**
+	 * Tests that flattening in parallel gives exactly the sequential board
+	 */
+	@Test
+	public void testParallelFlatten() {
+		Random rnd = new Random(8);
+		GameGenerator generator = new GameGenerator();
+		for (int maxDepth = 1; maxDepth <= 10; maxDepth++) {
+			Game g = generator.generateLarge(maxDepth, Color.BLUE, maxDepth);
+			int size = 1 << maxDepth;
+			for (int move = 0; move < 5; move++) {
+				int blocks = g.bfs().size();
+				g.getBlock(rnd.nextInt(blocks)).rotate();
+				g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+
+				g.setParallelFlatten(false);
+				IBlock[][] sequential = g.flatten();
+				int[] sequentialGrid = new int[size * size];
+				g.flattenInto(sequentialGrid);
+				g.setParallelFlatten(true);
+				IBlock[][] parallel = g.flatten();
+				int[] parallelGrid = new int[size * size];
+				g.flattenInto(parallelGrid);
+
+				for (int row = 0; row < size; row++) {
+					for (int col = 0; col < size; col++) {
+						assertSame(sequential[row][col], parallel[row][col]);
+					}
+				}
+				assertArrayEquals(sequentialGrid, parallelGrid);
+			}
+		}
+	}
+
+	/**
+	 * Tests that the journal undoes and redoes every move back to the same boards,
+	 * and that it can only go back as far as its ring or its checkpoints reach
+	 */
+	@Test
+	public void testMoveJournal() {
+		Random rnd = new Random(14);
+		int maxDepth = 5;
+		Game g = new Game(maxDepth, Color.BLUE, 14L);
+		MoveJournal journal = new MoveJournal(64, 16, 2);
+		g.setJournal(journal);
+		assertFalse(g.undo());
+
+		// remember the board after every position
+		List<int[]> boards = new ArrayList<int[]>();
+		boards.add(journalBoard(g));
+		for (int move = 0; move < 40; move++) {
+			int blocks = g.bfs().size();
+			long before = journal.position();
+			switch (move % 3) {
+			case 0:
+				g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+				break;
+			case 1:
+				g.getBlock(rnd.nextInt(blocks)).rotate();
+				break;
+			default:
+				g.getBlock(rnd.nextInt(blocks)).smash(maxDepth);
+				break;
+			}
+			// moves that did nothing, or rotates folded into the last one, add no
+			// position
+			if (journal.position() == before + 1) {
+				boards.add(journalBoard(g));
+			} else if (journal.position() == before) {
+				boards.set(boards.size() - 1, journalBoard(g));
+			} else {
+				boards.remove(boards.size() - 1);
+			}
+		}
+		assertEquals(boards.size() - 1, journal.position());
+
+		// undo everything, then redo it, checking every board on the way
+		for (int p = boards.size() - 1; p > 0; p--) {
+			assertArrayEquals(boards.get(p), journalBoard(g));
+			assertTrue(g.undo());
+			assertIndexMatchesBfs(g);
+			int score = g.perimeter_score();
+			assertEquals(g.recompute_perimeter_score(), score);
+		}
+		assertArrayEquals(boards.get(0), journalBoard(g));
+		assertFalse(g.undo());
+		for (int p = 1; p < boards.size(); p++) {
+			assertTrue(g.redo());
+			assertArrayEquals(boards.get(p), journalBoard(g));
+		}
+		assertFalse(g.redo());
+
+		// four quarter turns of one block leave no entry behind
+		Game turns = new Game(3, Color.BLUE, 3L);
+		turns.setJournal(new MoveJournal(16, 100, 1));
+		for (int i = 0; i < 4; i++) {
+			turns.getRoot().rotate();
+		}
+		assertEquals(0, turns.getJournal().position());
+
+		// a new move after an undo drops the moves that were undone
+		g.undo();
+		g.getRoot().rotate();
+		assertEquals(journal.position(), journal.latestPosition());
+		assertFalse(g.redo());
+
+		// past the ring, only checkpoints can be reached
+		journal = new MoveJournal(20, 32, 2);
+		g.setJournal(journal);
+		Map<Long, int[]> checkpointBoards = new HashMap<Long, int[]>();
+		for (int move = 0; move < 400; move++) {
+			int blocks = g.bfs().size();
+			if (move % 2 == 0) {
+				g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+			} else {
+				g.getBlock(rnd.nextInt(blocks)).rotate();
+			}
+			if (journal.checkpointPositions().contains(journal.position())) {
+				checkpointBoards.put(journal.position(), journalBoard(g));
+			}
+		}
+		assertEquals(20, journal.position() - journal.oldestPosition());
+		assertFalse(journal.rewindTo(journal.oldestPosition() - 1));
+		List<Long> checkpoints = journal.checkpointPositions();
+		assertEquals(2, checkpoints.size());
+		long oldestCheckpoint = checkpoints.get(0);
+		assertTrue(oldestCheckpoint < journal.oldestPosition());
+		assertTrue(journal.rewindTo(oldestCheckpoint));
+		assertEquals(oldestCheckpoint, journal.position());
+		assertArrayEquals(checkpointBoards.get(oldestCheckpoint), journalBoard(g));
+		assertIndexMatchesBfs(g);
+		int score = g.perimeter_score();
+		assertEquals(g.recompute_perimeter_score(), score);
+
+		// a new board starts a new journal
+		g.random_init();
+		assertEquals(0, journal.position());
+		assertFalse(g.undo());
+	}
+
+	/**
+	 * Tests that the journal redoes a smash into colors outside the palette, or no
+	 * color, as it was made, and that a checkpoint restores a leaf with no color as
+	 * a leaf
+	 */
+	@Test
+	public void testMoveJournalUnpackableColors() {
+		Game g = new Game(3, Color.BLUE, 16L);
+		MoveJournal journal = new MoveJournal(1, 1, 4);
+		g.setJournal(journal);
+		Block leaf = null;
+		for (IBlock b : g.bfs()) {
+			if (leaf == null && b.isleaf() && b.depth() < 3) {
+				leaf = (Block) b;
+			}
+		}
+		List<String> before = describeBoard(g);
+		leaf.smash(3, Color.BLACK, null, Color.BLUE, new Color(1, 2, 3));
+		List<String> smashed = describeBoard(g);
+		assertTrue(g.undo());
+		assertEquals(before, describeBoard(g));
+		assertTrue(g.redo());
+		assertEquals(smashed, describeBoard(g));
+
+		// two more moves push the smash out of the ring, leaving its checkpoint
+		g.swap(1, 2);
+		g.swap(3, 4);
+		assertEquals(2, journal.oldestPosition());
+		assertTrue(journal.rewindTo(1));
+		assertEquals(smashed, describeBoard(g));
+
+		// a color change is a move of its own
+		IBlock recolored = g.getBlock(1).isleaf() ? g.getBlock(1) : g.getBlock(1).getTopLeftTree();
+		Color oldColor = recolored.getColor();
+		Color newColor = oldColor == Color.BLACK ? Color.WHITE : Color.BLACK;
+		List<String> beforeRecolor = describeBoard(g);
+		long position = journal.position();
+		recolored.setColor(newColor);
+		List<String> afterRecolor = describeBoard(g);
+		assertEquals(position + 1, journal.position());
+		assertTrue(g.undo());
+		assertEquals(beforeRecolor, describeBoard(g));
+		assertEquals(g.recompute_perimeter_score(), g.perimeter_score());
+		assertTrue(g.redo());
+		assertEquals(afterRecolor, describeBoard(g));
+	}
+
+	/**
+	 * @return the depth and color of every block of g in bfs order, or split for
+	 *         blocks that are not leaves
+	 */
+	private List<String> describeBoard(IGame g) {
+		List<String> board = new ArrayList<String>();
+		for (int id = 0; g.getBlock(id) != null; id++) {
+			IBlock b = g.getBlock(id);
+			board.add(b.depth() + " " + (b.isleaf() ? String.valueOf(b.getColor()) : "split"));
+		}
+		return board;
+	}
+
+	/**
+	 * @return the structure and colors of g's board, the depth and palette index
+	 *         of every block in bfs order
+	 */
+	private int[] journalBoard(IGame g) {
+		List<IBlock> q = new ArrayList<IBlock>();
+		q.add(g.getRoot());
+		for (int j = 0; j < q.size(); j++) {
+			q.addAll(q.get(j).children());
+		}
+		int[] board = new int[2 * q.size()];
+		int i = 0;
+		for (IBlock b : q) {
+			board[i++] = b.depth();
+			board[i++] = b.isleaf() ? Block.colorIndex(b.getColor()) : -2;
+		}
+		return board;
+	}
+
+	/**
+	 * Tests that a persistent game makes the same moves as Game, and that a branch
+	 * taken before a move still shows the tree from before it
+	 */
+	@Test
+	public void testPersistentGameMatchesGame() {
+		Random rnd = new Random(15);
+		for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+			// the same seed draws the same board
+			Game g = new Game(maxDepth, Color.BLUE, 15L + maxDepth);
+			PersistentGame p = new PersistentGame(maxDepth, Color.BLUE, new SplittableRandom(15L + maxDepth));
+			assertPersistentMatches(g, p);
+			for (int move = 0; move < 100; move++) {
+				PersistentGame before = p.branch();
+				int[] beforeBoard = journalBoard(g);
+				int blocks = g.bfs().size();
+				int id = rnd.nextInt(blocks);
+				int op = rnd.nextInt(3);
+				if (op == 0) {
+					int other = rnd.nextInt(blocks);
+					g.swap(id, other);
+					p.swap(id, other);
+				} else if (op == 1) {
+					g.getBlock(id).rotate();
+					p.rotate(p.getBlock(id));
+				} else {
+					// branching splits p's random source, so copy the new colors across
+					g.getBlock(id).smash(maxDepth);
+					p.smash(p.getBlock(id));
+					List<IBlock> gKids = g.getBlock(id).children();
+					List<IBlock> pKids = p.getBlock(id).children();
+					for (int i = 0; i < gKids.size(); i++) {
+						gKids.get(i).setColor(pKids.get(i).getColor());
+					}
+				}
+				assertPersistentMatches(g, p);
+
+				// the branch still holds the old tree, and moves on it leave p alone
+				Game old = new Game(maxDepth, Color.BLUE);
+				old.setRoot(copyTree(before.getRoot(), null));
+				assertArrayEquals(beforeBoard, journalBoard(old));
+				before.rotate(before.getRoot());
+				assertPersistentMatches(g, p);
+			}
+		}
+
+		// a view of an older tree is no longer a block of the game
+		PersistentGame p = new PersistentGame(4, Color.BLUE, new SplittableRandom(1L));
+		IBlock oldRoot = p.getRoot();
+		p.rotate(oldRoot);
+		IBlock newRoot = p.getRoot();
+		p.rotate(oldRoot);
+		assertEquals(newRoot, p.getRoot());
+
+		// moves on a view go through the game
+		PersistentGame expected = p.branch();
+		expected.rotate(expected.getRoot());
+		newRoot.rotate();
+		assertEquals(expected.perimeter_score(), p.perimeter_score());
+		assertEquals(expected.rootNode().hash, p.rootNode().hash);
+		IBlock leaf = p.leafAt(0, 0);
+		leaf.setColor(Color.BLUE);
+		assertEquals(Color.BLUE, p.leafAt(0, 0).getColor());
+		int blocks = p.blockCount();
+		int depth = leaf.depth();
+		p.leafAt(0, 0).smash(p.max_depth());
+		assertEquals(depth < p.max_depth() ? blocks + 4 : blocks, p.blockCount());
+		assertEquals(Math.min(depth + 1, p.max_depth()), p.leafAt(0, 0).depth());
+
+		// a block's path holds 32 levels
+		try {
+			new PersistentGame(33, Color.BLUE);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Checks that every block of p matches the one with the same id in g
+	 */
+	private void assertPersistentMatches(Game g, PersistentGame p) {
+		int blocks = g.bfs().size();
+		assertEquals(blocks, p.blockCount());
+		assertArrayEquals(journalBoard(g), journalBoard(p));
+		for (int i = 0; i < blocks; i += 1 + blocks / 16) {
+			assertEquals(g.getBlock(i).getTopLeft().toString(), p.getBlock(i).getTopLeft().toString());
+			assertEquals(g.getBlock(i).getBotRight().toString(), p.getBlock(i).getBotRight().toString());
+		}
+		assertEquals(g.perimeter_score(), p.perimeter_score());
+		IBlock[][] gFlat = g.flatten();
+		IBlock[][] pFlat = p.flatten();
+		for (int row = 0; row < gFlat.length; row++) {
+			for (int col = 0; col < gFlat.length; col++) {
+				assertEquals(gFlat[row][col].getColor(), pFlat[row][col].getColor());
+			}
+		}
+	}
+
+	/**
+	 * @return a Block copy of the tree under b
+	 */
+	private Block copyTree(IBlock b, Block parent) {
+		Block copy = new Block(b.getTopLeft(), b.getBotRight(), b.depth(), parent);
+		if (b.isleaf()) {
+			copy.setColor(b.getColor());
+			return copy;
+		}
+		copy.setTopLeftTree(copyTree(b.getTopLeftTree(), copy));
+		copy.setTopRightTree(copyTree(b.getTopRightTree(), copy));
+		copy.setBotRightTree(copyTree(b.getBotRightTree(), copy));
+		copy.setBotLeftTree(copyTree(b.getBotLeftTree(), copy));
+		return copy;
+	}
+
+	/**
+	 * Tests that the solver's moves, made on the game, give the score it promised
+	 */
+	@Test
+	public void testSolver() {
+		for (int maxDepth = 2; maxDepth <= 6; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE, 16L + maxDepth);
+			Solver solver = new Solver(g);
+			solver.setSmashAllowed(false);
+			int before = g.perimeter_score();
+			Solver.Result result = solver.solve(3, 200);
+			// solving leaves the game alone
+			assertEquals(before, g.perimeter_score());
+			assertEquals(before, result.getStartScore());
+			assertTrue(result.getScore() >= before);
+			assertTrue(result.getMoves().size() <= 3);
+			// the moves apply to a persistent game as well
+			PersistentGame persistent = PersistentGame.of(g);
+			for (Solver.Move move : result.getMoves()) {
+				move.apply(g);
+				move.apply(persistent);
+			}
+			assertEquals((int) result.getScore(), g.perimeter_score());
+			assertEquals((int) result.getScore(), persistent.perimeter_score());
+			assertEquals(g.recompute_perimeter_score(), (int) result.getScore());
+			assertTrue(result.getEvaluated() > 0);
+
+			// a solve plans from the board the game has when it starts
+			g.getRoot().rotate();
+			assertFalse(result.isFor(g));
+			try {
+				result.applyTo(g);
+				fail("moves planned for an old board were made");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			result = solver.solve(3, 200);
+			assertEquals(g.perimeter_score(), result.getStartScore());
+			assertTrue(result.isFor(g));
+			result.applyTo(g);
+			assertEquals((int) result.getScore(), g.perimeter_score());
+			assertEquals(g.recompute_perimeter_score(), (int) result.getScore());
+
+			// a smash can only be the last move
+			solver.setSmashAllowed(true);
+			result = solver.solve(2, 100);
+			List<Solver.Move> moves = result.getMoves();
+			for (int i = 0; i < moves.size() - 1; i++) {
+				assertTrue(moves.get(i).getType() != Solver.Move.SMASH);
+			}
+			persistent = PersistentGame.of(g);
+			int blocks = persistent.blockCount();
+			for (Solver.Move move : moves) {
+				move.apply(persistent);
+			}
+			boolean smashed = !moves.isEmpty() && moves.get(moves.size() - 1).getType() == Solver.Move.SMASH;
+			assertEquals(smashed ? blocks + 4 : blocks, persistent.blockCount());
+			if (!smashed) {
+				assertEquals((int) result.getScore(), persistent.perimeter_score());
+			}
+		}
+	}
+
+	/**
+	 * Tests that the board hash follows every move, is equal for equal boards and
+	 * differs for different ones
+	 */
+	@Test
+	public void testBoardHash() {
+		Random rnd = new Random(17);
+		for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE, 17L + maxDepth);
+			g.setJournal(new MoveJournal(1000, 1000, 0));
+			long start = g.board_hash();
+			assertEquals(new Game(maxDepth, Color.BLUE, 17L + maxDepth).board_hash(), start);
+			for (int move = 0; move < 50; move++) {
+				int blocks = g.bfs().size();
+				int id = rnd.nextInt(blocks);
+				long before = g.board_hash();
+				int[] board = journalBoard(g);
+				switch (rnd.nextInt(4)) {
+				case 0:
+					g.swap(id, rnd.nextInt(blocks));
+					break;
+				case 1:
+					g.getBlock(id).rotate();
+					break;
+				case 2:
+					g.getBlock(id).smash(maxDepth);
+					break;
+				default:
+					g.getBlock(id).setColor(IBlock.COLORS[rnd.nextInt(IBlock.COLORS.length)]);
+					break;
+				}
+				long after = g.board_hash();
+				assertEquals(g.recompute_board_hash(), after);
+				assertEquals(Arrays.equals(board, journalBoard(g)), before == after);
+			}
+			// undoing the moves brings the hash back
+			while (g.undo()) {
+				assertEquals(g.recompute_board_hash(), g.board_hash());
+			}
+		}
+
+		// four quarter turns give the same board and so the same hash
+		Game g = new Game(4, Color.BLUE, 170L);
+		long start = g.board_hash();
+		g.getRoot().rotate();
+		assertNotEquals(start, g.board_hash());
+		g.getRoot().rotate();
+		g.getRoot().rotate();
+		g.getRoot().rotate();
+		assertEquals(start, g.board_hash());
+	}
+
+	/**
+	 * Tests that boards written in the binary encoding read back the same
+	 */
+	@Test
+	public void testBinaryEncoding() throws IOException {
+		Random rnd = new Random(18);
+		ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+		for (int maxDepth = 1; maxDepth <= 10; maxDepth++) {
+			Game g = new Game(maxDepth, IBlock.COLORS[maxDepth % 8], 18L + maxDepth);
+			for (int move = 0; move < 10; move++) {
+				int blocks = g.bfs().size();
+				g.getBlock(rnd.nextInt(blocks)).smash(maxDepth);
+				g.getBlock(rnd.nextInt(blocks)).rotate();
+			}
+
+			buf.clear();
+			g.writeTo(buf);
+			assertEquals(g.encodedLength(), buf.position());
+			buf.flip();
+			Game read = Game.readFrom(buf);
+			assertEquals(0, buf.remaining());
+			assertSameBoard(g, read);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			g.writeTo(out);
+			out.write(42);
+			byte[] bytes = out.toByteArray();
+			assertEquals(g.encodedLength() + 1, bytes.length);
+			ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+			assertSameBoard(g, Game.readFrom(in));
+			// nothing past the board is read
+			assertEquals(42, in.read());
+		}
+
+		// a depth 3 board of 13 blocks is 1 split bit for the root, 13 bits for each
+		// of the two levels below it and 12 bits for the four leaves at max depth
+		Game small = new Game(3, Color.BLUE, 1L);
+		assertEquals(13, small.bfs().size());
+		assertEquals(1 + 5, small.encodedLength());
+
+		// colors outside the palette cannot be written
+		small.getBlock(1).setColor(Color.BLACK);
+		try {
+			small.writeTo(new ByteArrayOutputStream());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tests that every board of an archive opens as it was appended, whatever
+	 * chunks it is mapped in
+	 */
+	@Test
+	public void testBoardArchive() throws IOException {
+		Path file = Files.createTempFile("boards", ".archive");
+		try {
+			List<Game> expected = new ArrayList<Game>();
+			try (BoardArchiveWriter writer = new BoardArchiveWriter(file)) {
+				for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+					Game g = new Game(maxDepth, IBlock.COLORS[maxDepth], 19L + maxDepth);
+					assertEquals(expected.size(), writer.append(g));
+					expected.add(g);
+				}
+				// the same seed draws the same boards when appended as they are drawn
+				writer.appendRandom(new Game(4, Color.RED, 19L), 50);
+				Game g = new Game(4, Color.RED, 19L);
+				for (int i = 0; i < 50; i++) {
+					g.random_init();
+					ByteBuffer buf = ByteBuffer.allocate(g.encodedLength());
+					g.writeTo(buf);
+					buf.flip();
+					expected.add(Game.readFrom(buf));
+				}
+				assertEquals(expected.size(), writer.size());
+			}
+
+			for (long chunkSize : new long[] { 1L << 30, 64, 1 }) {
+				try (BoardArchive archive = new BoardArchive(file, chunkSize)) {
+					assertEquals(expected.size(), archive.size());
+					for (int n = archive.size() - 1; n >= 0; n--) {
+						Game g = expected.get(n);
+						assertEquals(g.encodedLength(), archive.payload(n).remaining());
+						assertSameBoard(g, archive.open(n));
+					}
+					try {
+						archive.open(archive.size());
+						fail();
+					} catch (IndexOutOfBoundsException e) {
+						// expected
+					}
+				}
+			}
+
+			// an empty archive opens with no boards
+			new BoardArchiveWriter(file).close();
+			try (BoardArchive archive = new BoardArchive(file)) {
+				assertEquals(0, archive.size());
+			}
+
+			// a file whose header has the wrong magic or version is refused
+			byte[] bytes = Files.readAllBytes(file);
+			for (int at : new int[] { 0, 7 }) {
+				byte[] corrupt = bytes.clone();
+				corrupt[at]++;
+				Files.write(file, corrupt);
+				try {
+					new BoardArchive(file).close();
+					fail();
+				} catch (IOException e) {
+					// expected
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Tests that replaying a move log, long enough to span many buffers, leaves
+	 * the same board and scores as applying its moves one by one
+	 */
+	@Test
+	public void testMoveReplay() throws IOException {
+		Random rnd = new Random(20);
+		Game expected = new Game(4, Color.BLUE, 20L);
+		List<Integer> expectedScores = new ArrayList<Integer>();
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < 30000; i++) {
+			// operations other than 1, 2 and 3 take no block ids and do nothing
+			int op = rnd.nextInt(5);
+			int a = rnd.nextInt(100) - 5;
+			int b = rnd.nextInt(100);
+			log.append(op);
+			if (op == 1) {
+				log.append(' ').append(a).append("  ").append(b);
+				expected.swap(a, b);
+			} else if (op == 2 || op == 3) {
+				log.append(i % 7 == 0 ? "\r\n" : " ").append(a);
+				IBlock block = expected.getBlock(a);
+				if (block != null && op == 2) {
+					block.rotate();
+				} else if (block != null) {
+					block.smash(expected.max_depth());
+				}
+			}
+			log.append('\n');
+			expectedScores.add(expected.perimeter_score());
+		}
+		assertTrue(log.length() > 1 << 16);
+		// a move cut short by the end of the log is not applied
+		log.append("1 5");
+
+		Game replayed = new Game(4, Color.BLUE, 20L);
+		List<Integer> scores = new ArrayList<Integer>();
+		long moves = new MoveReplay(replayed).replay(
+				Channels.newChannel(new ByteArrayInputStream(log.toString().getBytes())), scores::add);
+		assertEquals(expectedScores.size(), moves);
+		assertEquals(expectedScores, scores);
+		assertSameBoard(expected, replayed);
+
+		// on a persistent game the moves go through the game
+		Game mutable = new Game(4, Color.BLUE, 21L);
+		PersistentGame persistent = PersistentGame.of(mutable);
+		StringBuilder turns = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			int blocks = mutable.bfs().size();
+			if (i % 2 == 0) {
+				turns.append("1 ").append(rnd.nextInt(blocks)).append(' ').append(rnd.nextInt(blocks)).append('\n');
+			} else {
+				turns.append("2 ").append(rnd.nextInt(blocks)).append('\n');
+			}
+		}
+		new MoveReplay(mutable).replay(Channels.newChannel(new ByteArrayInputStream(turns.toString().getBytes())),
+				null);
+		new MoveReplay(persistent).replay(
+				Channels.newChannel(new ByteArrayInputStream(turns.toString().getBytes())), null);
+		assertPersistentMatches(mutable, persistent);
+		int leaf = 0;
+		while (!persistent.getBlock(leaf).isleaf() || persistent.getBlock(leaf).depth() == 4) {
+			leaf++;
+		}
+		int blocks = persistent.blockCount();
+		new MoveReplay(persistent).replay(Channels.newChannel(new ByteArrayInputStream(("3 " + leaf).getBytes())),
+				null);
+		assertEquals(blocks + 4, persistent.blockCount());
+
+		try {
+			new MoveReplay(replayed).replay(Channels.newChannel(new ByteArrayInputStream("2 1 x".getBytes())), null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Tests the server's line protocol on one session, then plays many sessions
+	 * against it at once with the load generator
+	 */
+	@Test
+	public void testGameServer() throws Exception {
+		GameServer server = new GameServer(new InetSocketAddress("localhost", 0), 4, Color.BLUE, 21L);
+		Thread serving = new Thread(server);
+		serving.start();
+		try {
+			InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+			try (Socket socket = new Socket("localhost", server.getPort())) {
+				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				out.println("score");
+				String score = in.readLine();
+				Integer.parseInt(score);
+				// four rotations of the whole board, and a swap undone, leave the score
+				String rotated = null;
+				for (int i = 0; i < 4; i++) {
+					out.println("rotate 0");
+					rotated = in.readLine();
+				}
+				assertEquals(score, rotated);
+				out.println("swap 1 2");
+				in.readLine();
+				out.println("swap 2 1");
+				assertEquals(score, in.readLine());
+				// moves on blocks that do not exist do nothing
+				out.println("smash 100000");
+				assertEquals(score, in.readLine());
+				out.println("jump 1");
+				assertTrue(in.readLine().startsWith("ERR"));
+				out.println("rotate x");
+				assertTrue(in.readLine().startsWith("ERR"));
+				out.println("quit");
+				assertNull(in.readLine());
+			}
+
+			// a client that sends far more commands than fit in the socket buffers
+			// before reading a reply gets every one answered, and the server keeps
+			// serving other sessions meanwhile. the replies are longer than the
+			// commands, so they back up on the server unless it stops reading
+			try (Socket flooding = new Socket(); Socket other = new Socket("localhost", server.getPort())) {
+				flooding.setReceiveBufferSize(4096);
+				flooding.connect(address);
+				int commands = 200000;
+				byte[] lines = new byte[2 * commands];
+				for (int i = 0; i < lines.length; i += 2) {
+					lines[i] = 'x';
+					lines[i + 1] = '\n';
+				}
+				Thread sending = new Thread(() -> {
+					try {
+						flooding.getOutputStream().write(lines);
+					} catch (IOException e) {
+						// the reads below fail
+					}
+				});
+				sending.start();
+
+				PrintWriter otherOut = new PrintWriter(other.getOutputStream(), true);
+				BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+				otherOut.println("score");
+				Integer.parseInt(otherIn.readLine());
+
+				BufferedReader floodIn = new BufferedReader(new InputStreamReader(flooding.getInputStream()));
+				for (int i = 0; i < commands; i++) {
+					assertEquals("ERR unknown command x", floodIn.readLine());
+				}
+				sending.join(5000);
+				assertFalse(sending.isAlive());
+			}
+
+			GameLoadGenerator.Result result = new GameLoadGenerator(address, 200, 25, 4, 21L).run();
+			assertEquals(200 * 25, result.getMoves());
+			assertTrue(result.percentile(50) > 0);
+			assertTrue(result.percentile(99) >= result.percentile(50));
+		} finally {
+			server.close();
+			serving.join(5000);
+		}
+		assertFalse(serving.isAlive());
+	}
+
+	/**
+	 * Tests that the retained scene keeps one node per block over many moves, and
+	 * draws the same picture when updated block by block as when built afresh
+	 */
+	@Test
+	public void testRetainedScene() {
+		Random rnd = new Random(22);
+		Game g = new Game(4, Color.BLUE, 22L);
+		Squares squares = new Squares();
+		squares.addQuadrant(g.getRoot());
+		assertEquals(g.bfs().size(), squares.sceneSize());
+
+		for (int move = 0; move < 300; move++) {
+			int blocks = g.bfs().size();
+			int x = rnd.nextInt(blocks);
+			IBlock b = g.getBlock(x);
+			int op = rnd.nextInt(3);
+			if (op == 0) {
+				int y = rnd.nextInt(blocks);
+				g.swap(x, y);
+				squares.updateQuadrant(g.getBlock(x));
+				squares.updateQuadrant(g.getBlock(y));
+			} else if (op == 1) {
+				b.rotate();
+				Rectangle dirty = squares.updateQuadrant(b);
+				// only the rotated block's area is repainted
+				int size = 400 >> b.depth();
+				assertEquals(size + 1, dirty.width);
+				assertEquals(size + 1, dirty.height);
+			} else {
+				b.smash(g.max_depth());
+				squares.updateQuadrant(b);
+			}
+			assertEquals(g.bfs().size(), squares.sceneSize());
+		}
+
+		Squares fresh = new Squares();
+		fresh.addQuadrant(g.getRoot());
+		assertArrayEquals(render(fresh), render(squares));
+	}
+
+	/**
+	 * Tests that the buffered mode, drawing only leaves into a cached image, draws
+	 * the same picture as drawing every block, before and after updates
+	 */
+	@Test
+	public void testBufferedRendering() {
+		Random rnd = new Random(23);
+		for (int maxDepth = 1; maxDepth <= 7; maxDepth += 3) {
+			Game g = new Game(maxDepth, Color.BLUE, 23L + maxDepth);
+			Squares buffered = new Squares();
+			buffered.setBuffered(true);
+			buffered.addQuadrant(g.getRoot());
+			assertEquals(0, buffered.sceneSize());
+
+			for (int move = 0; move < 100; move++) {
+				int blocks = g.bfs().size();
+				IBlock b = g.getBlock(rnd.nextInt(blocks));
+				if (move % 2 == 0) {
+					b.rotate();
+				} else {
+					b.smash(g.max_depth());
+				}
+				Rectangle dirty = buffered.updateQuadrant(b);
+				assertTrue(new Rectangle(0, 0, 400, 400).contains(dirty));
+			}
+
+			Squares polygons = new Squares();
+			polygons.addQuadrant(g.getRoot());
+			assertArrayEquals(render(polygons), render(buffered));
+			// switching modes redraws the same board
+			buffered.setBuffered(false);
+			assertEquals(g.bfs().size(), buffered.sceneSize());
+			assertArrayEquals(render(polygons), render(buffered));
+		}
+	}
+
+	/**
+	 * Tests that thumbnails decode to the rasterized pixels, that those match the
+	 * board as the frame draws it, and that encoding in parallel changes nothing
+	 */
+	@Test
+	public void testBoardRasterizer() throws IOException {
+		Game[] games = new GameGenerator().generate(40, 5, Color.BLUE, 24L);
+		IBlock[] roots = new IBlock[games.length];
+		for (int i = 0; i < games.length; i++) {
+			roots[i] = games[i].getRoot();
+		}
+		BoardRasterizer rasterizer = new BoardRasterizer(48);
+		byte[][] pngs = rasterizer.encodePngs(roots);
+		for (int i = 0; i < games.length; i++) {
+			assertArrayEquals(rasterizer.encodePng(roots[i]), pngs[i]);
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(pngs[i]));
+			assertEquals(48, image.getWidth());
+			assertEquals(48, image.getHeight());
+			int[] decoded = image.getRGB(0, 0, 48, 48, null, 0, 48);
+			int[] pixels = rasterizer.rasterize(roots[i], new int[48 * 48]);
+			for (int p = 0; p < pixels.length; p++) {
+				assertEquals(pixels[p], decoded[p] & 0xFFFFFF);
+			}
+		}
+
+		// at the frame's board size, the pixels are the frame's, outline aside
+		Squares squares = new Squares();
+		squares.addQuadrant(roots[0]);
+		int[] drawn = render(squares);
+		int[] pixels = new BoardRasterizer(400).rasterize(roots[0], new int[400 * 400]);
+		int width = squares.getPreferredSize().width;
+		for (int y = 0; y < 400; y++) {
+			for (int x = 0; x < 400; x++) {
+				assertEquals(pixels[y * 400 + x], drawn[y * width + x] & 0xFFFFFF);
+			}
+		}
+	}
+
+	/**
+	 * @return the pixels of the panel painted at its preferred size
+	 */
+	private int[] render(Squares squares) {
+		squares.setSize(squares.getPreferredSize());
+		BufferedImage image = new BufferedImage(squares.getWidth(), squares.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g2 = image.createGraphics();
+		squares.paint(g2);
+		g2.dispose();
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	/**
+	 * Tests that point and region queries find the same leaves as flatten, on
+	 * every engine and on a root whose units are not cells
+	 */
+	@Test
+	public void testRegionQueries() {
+		Game game = new Game(5, Color.BLUE, 25L);
+		IBlock b = new Block(new Point(0, 0), new Point(8, 8), 0, null);
+		b.smash(4);
+		b.getTopLeftTree().smash(4);
+		Game scaled = new Game(4, Color.BLUE);
+		scaled.setRoot(b);
+		IGame[] games = { game, scaled, PersistentGame.of(game), new CompactGame(5, Color.RED, new SplittableRandom(25L)) };
+
+		Random rnd = new Random(25);
+		for (IGame g : games) {
+			IBlock[][] board = g.flatten();
+			int size = board.length;
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					assertEquals(board[y][x], g.leafAt(x, y));
+				}
+			}
+			assertNull(g.leafAt(-1, 0));
+			assertNull(g.leafAt(0, size));
+
+			for (int i = 0; i < 50; i++) {
+				int x = rnd.nextInt(size + 4) - 2;
+				int y = rnd.nextInt(size + 4) - 2;
+				int width = rnd.nextInt(size);
+				int height = rnd.nextInt(size);
+				List<IBlock> leaves = g.leavesIn(x, y, width, height);
+				// every cell of the rectangle is covered by one of the leaves found
+				List<IBlock> covering = new ArrayList<IBlock>();
+				for (int row = Math.max(0, y); row < Math.min(size, y + height); row++) {
+					for (int col = Math.max(0, x); col < Math.min(size, x + width); col++) {
+						assertTrue(leaves.contains(board[row][col]));
+						if (!covering.contains(board[row][col])) {
+							covering.add(board[row][col]);
+						}
+					}
+				}
+				// and no other leaf, nor any leaf twice, is found
+				assertEquals(covering.size(), leaves.size());
+			}
+			assertEquals(0, g.leavesIn(0, 0, 0, size).size());
+			assertEquals(g.leavesIn(0, 0, size, size).size(), g.leavesIn(-5, -5, size + 10, size + 10).size());
+		}
+
+		// at depth 16 the cell arithmetic no longer fits in an int
+		IBlock deep = new Block(new Point(0, 0), new Point(1 << 16, 1 << 16), 0, null);
+		deep.smash(16);
+		deep.getTopLeftTree().smash(16);
+		Game big = new Game(16, Color.BLUE);
+		big.setRoot(deep);
+		assertSame(deep.getTopLeftTree().getTopLeftTree(), big.leafAt(0, 0));
+		assertSame(deep.getTopLeftTree().getBotRightTree(), big.leafAt(32767, 32767));
+		assertSame(deep.getTopRightTree(), big.leafAt(65535, 0));
+		assertSame(deep.getBotLeftTree(), big.leafAt(0, 65535));
+		assertSame(deep.getBotRightTree(), big.leafAt(65535, 65535));
+		assertNull(big.leafAt(65536, 0));
+		assertEquals(Arrays.asList(deep.getTopLeftTree().getTopLeftTree()), big.leavesIn(0, 0, 1, 1));
+		assertEquals(Arrays.asList(deep.getTopRightTree(), deep.getBotRightTree()), big.leavesIn(40000, 0, 10, 65536));
+	}
+
+	/**
+	 * Checks that read has the same board, max depth and target as g
+	 */
+	private void assertSameBoard(Game g, Game read) {
+		assertEquals(g.max_depth(), read.max_depth());
+		assertEquals(g.getTarget(), read.getTarget());
+		assertArrayEquals(journalBoard(g), journalBoard(read));
+		assertEquals(g.perimeter_score(), read.perimeter_score());
+		assertEquals(g.board_hash(), read.board_hash());
+		assertIndexMatchesBfs(read);
+	}
+
+	/**
+	 * Tests that the generator builds the same valid boards from the same seed
+	 */
+	@Test
+	public void testGameGenerator() {
+		GameGenerator generator = new GameGenerator();
+		Game[] batch1 = generator.generate(8, 6, Color.BLUE, 99L);
+		Game[] batch2 = generator.generate(8, 6, Color.BLUE, 99L);
+		for (int i = 0; i < batch1.length; i++) {
+			assertSameTree(batch1[i], batch2[i]);
+			assertIndexMatchesBfs(batch1[i]);
+		}
+
+		Game large1 = generator.generateLarge(14, Color.BLUE, 7L);
+		Game large2 = generator.generateLarge(14, Color.BLUE, 7L);
+		assertSameTree(large1, large2);
+		assertIndexMatchesBfs(large1);
+		assertQuadrants(large1.getRoot());
+		int maxDepthReached = 0;
+		for (IBlock b : large1.bfs()) {
+			maxDepthReached = Math.max(maxDepthReached, b.depth());
+		}
+		assertTrue(maxDepthReached >= 13);
+		int score = large1.perimeter_score();
+		assertEquals(large1.recompute_perimeter_score(), score);
+	}
+
+	/**
+	 * Checks that g1 and g2 have the same blocks in the same places
+	 */
+	private void assertSameTree(Game g1, Game g2) {
+		Queue<IBlock> q1 = g1.bfs();
+		Queue<IBlock> q2 = g2.bfs();
+		assertEquals(q1.size(), q2.size());
+		while (q1.size() != 0) {
+			IBlock b1 = q1.poll();
+			IBlock b2 = q2.poll();
+			assertEquals(b1.depth(), b2.depth());
+			assertEquals(b1.getColor(), b2.getColor());
+			assertEquals(b1.getTopLeft().toString(), b2.getTopLeft().toString());
+		}
+	}
+
+	/**
+	 * Checks that the index of g agrees with a breadth first search of its tree
+	 */
+	private void assertIndexMatchesBfs(Game g) {
+		Queue<IBlock> q = g.bfs();
+		int id = 0;
+		while (q.size() != 0) {
+			assertSame(q.poll(), g.getBlock(id));
+			id++;
+		}
+		assertNull(g.getBlock(id));
+		assertNull(g.getBlock(-1));
+	}
+
+	/**
+	 * For boards of depth 1 to 16, checks that the root spans 2^depth units and
+	 * that every block still covers exactly its quadrant of its parent after random
+	 * swaps, rotates and smashes. For the smaller boards, also checks that every
+	 * cell of the flattened board is a leaf that covers that cell
+	 */
+	@Test
+	public void testGeometryDepth1To16() {
+		Random rnd = new Random(7);
+		for (int maxDepth = 1; maxDepth <= 16; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE);
+			int size = 1 << maxDepth;
+			assertEquals(0, g.getRoot().getTopLeft().getX());
+			assertEquals(0, g.getRoot().getTopLeft().getY());
+			assertEquals(size, g.getRoot().getBotRight().getX());
+			assertEquals(size, g.getRoot().getBotRight().getY());
+
+			for (int move = 0; move < 100; move++) {
+				int blocks = g.bfs().size();
+				int op = rnd.nextInt(3);
+				if (op == 0) {
+					g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+				} else if (op == 1) {
+					g.getBlock(rnd.nextInt(blocks)).rotate();
+				} else {
+					g.getBlock(rnd.nextInt(blocks)).smash(maxDepth);
+				}
+				assertQuadrants(g.getRoot());
+			}
+
+			if (maxDepth <= 8) {
+				IBlock[][] board = g.flatten();
+				for (int row = 0; row < size; row++) {
+					for (int col = 0; col < size; col++) {
+						IBlock cell = board[row][col];
+						assertTrue(cell.isleaf());
+						assertTrue(cell.getTopLeft().getX() <= col && col < cell.getBotRight().getX());
+						assertTrue(cell.getTopLeft().getY() <= row && row < cell.getBotRight().getY());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that every block still covers its quadrant of its parent after random
+	 * swaps, rotates and smashes, and that the perimeter score follows along
+	 */
+	@Test
+	public void testGeometryFollowsMoves() {
+		Random rnd = new Random(3);
+		for (int maxDepth = 1; maxDepth <= 6; maxDepth++) {
+			Game g = new Game(maxDepth, Color.BLUE);
+			for (int move = 0; move < 100; move++) {
+				int blocks = g.bfs().size();
+				int op = rnd.nextInt(3);
+				if (op == 0) {
+					g.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+				} else if (op == 1) {
+					g.getBlock(rnd.nextInt(blocks)).rotate();
+				} else {
+					g.getBlock(rnd.nextInt(blocks)).smash(maxDepth);
+				}
+				assertQuadrants(g.getRoot());
+				assertEquals(flatScore(g, Color.BLUE), g.perimeter_score());
+			}
+		}
+
+		// a point handed out before a move is not moved with the block
+		IBlock b = new Block(new Point(0, 0), new Point(8, 8), 0, null);
+		b.smash(1);
+		IBlock topLeft = b.getTopLeftTree();
+		Point kept = topLeft.getTopLeft();
+		b.rotate();
+		assertEquals(4, topLeft.getTopLeft().getX());
+		assertEquals(0, kept.getX());
+	}
+
+	/**
+	 * Checks that every child under b covers its quadrant of its parent and points
+	 * back to it
+	 */
+	private void assertQuadrants(IBlock b) {
+		if (b.isleaf()) {
+			return;
+		}
+		int x1 = b.getTopLeft().getX();
+		int y1 = b.getTopLeft().getY();
+		int x2 = b.getBotRight().getX();
+		int y2 = b.getBotRight().getY();
+		int midX = (x1 + x2) / 2;
+		int midY = (y1 + y2) / 2;
+		assertBounds(b.getTopLeftTree(), x1, y1, midX, midY);
+		assertBounds(b.getTopRightTree(), midX, y1, x2, midY);
+		assertBounds(b.getBotRightTree(), midX, midY, x2, y2);
+		assertBounds(b.getBotLeftTree(), x1, midY, midX, y2);
+		for (IBlock kid : b.children()) {
+			assertSame(b, ((Block) kid).getParent());
+			assertEquals(b.depth() + 1, kid.depth());
+			assertQuadrants(kid);
+		}
+	}
+
+	/**
+	 * Checks that b spans (x1,y1) to (x2,y2)
+	 */
+	private void assertBounds(IBlock b, int x1, int y1, int x2, int y2) {
+		assertEquals(x1, b.getTopLeft().getX());
+		assertEquals(y1, b.getTopLeft().getY());
+		assertEquals(x2, b.getBotRight().getX());
+		assertEquals(y2, b.getBotRight().getY());
+	}
+
+}
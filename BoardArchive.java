@@ -0,0 +1,151 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of many boards, read through memory mappings so that opening it reads
+ * nothing but its header and trailer, checking the magic number and format
+ * version of the header, and any board can be reached by its index without the
+ * file being read into the heap. The file is laid out as:
+ *
+ * - a header: the magic number and the format version, an int each
+ *
+ * - the boards, one after the other, each in the encoding of
+ * {@link Game#writeTo(ByteBuffer)}
+ *
+ * - the index: count + 1 longs, the offset of every board and then the offset
+ * of the end of the last one
+ *
+ * - a trailer: the offset of the index, a long, then the number of boards, the
+ * length of the longest board and the magic number again, an int each
+ *
+ * A single mapping cannot span more than 2GB, so the boards are mapped in
+ * chunks that overlap by the length of the longest board. Every board then
+ * lies whole within the chunk its offset falls in. Archives are written by
+ * {@link BoardArchiveWriter}.
+ *
+ * @author clairewalker
+ *
+ */
+public class BoardArchive implements Closeable {
+	static final int MAGIC = 0x424C4B41;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 8;
+	static final int TRAILER_LENGTH = 20;
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final int count;
+	private final long chunkSize;
+	private final MappedByteBuffer index;
+	private final MappedByteBuffer[] chunks;
+
+	/**
+	 * Opens an archive, mapping it but reading only its header and trailer
+	 *
+	 * @param path the archive file
+	 * @throws IOException if the file cannot be read, is not an archive or is an
+	 *                     archive of another version
+	 */
+	public BoardArchive(Path path) throws IOException {
+		this(path, CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the most bytes of boards one mapping starts within
+	 */
+	BoardArchive(Path path, long chunkSize) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.chunkSize = chunkSize;
+		try {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_LENGTH + TRAILER_LENGTH) {
+				throw new IOException(path + " is not a board archive");
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+			if (header.getInt() != MAGIC) {
+				throw new IOException(path + " is not a board archive");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException(path + " is a board archive of version " + version + ", not " + VERSION);
+			}
+			ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, fileSize - TRAILER_LENGTH,
+					TRAILER_LENGTH);
+			long indexOffset = trailer.getLong();
+			this.count = trailer.getInt();
+			int maxLength = trailer.getInt();
+			long indexLength = 8L * (count + 1);
+			if (trailer.getInt() != MAGIC || indexOffset < HEADER_LENGTH
+					|| indexOffset + indexLength + TRAILER_LENGTH != fileSize
+					|| indexLength > Integer.MAX_VALUE) {
+				throw new IOException(path + " is not a board archive");
+			}
+			this.index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexLength);
+
+			// map the boards in chunks, each reaching far enough past its end for the
+			// last board starting in it
+			long boardsLength = indexOffset - HEADER_LENGTH;
+			int chunkCount = (int) Math.max(1, (boardsLength + chunkSize - 1) / chunkSize);
+			this.chunks = new MappedByteBuffer[chunkCount];
+			for (int i = 0; i < chunkCount; i++) {
+				long start = HEADER_LENGTH + i * chunkSize;
+				long end = Math.min(indexOffset, start + chunkSize + maxLength);
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of boards in the archive
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * The encoded bytes of a board, straight from the mapping with nothing
+	 * copied, for example to send as they are
+	 *
+	 * @param n the index of the board
+	 * @return a read only buffer holding exactly the board's bytes
+	 * @throws IndexOutOfBoundsException if there is no board n
+	 */
+	public ByteBuffer payload(int n) {
+		if (n < 0 || n >= count) {
+			throw new IndexOutOfBoundsException("board " + n + " of " + count);
+		}
+		long offset = index.getLong(8 * n) - HEADER_LENGTH;
+		int length = (int) (index.getLong(8 * (n + 1)) - HEADER_LENGTH - offset);
+		ByteBuffer chunk = chunks[(int) (offset / chunkSize)];
+		int at = (int) (offset % chunkSize);
+		return chunk.asReadOnlyBuffer().position(at).limit(at + length).slice();
+	}
+
+	/**
+	 * Decodes a board into a new game. Only the board's own bytes are read
+	 *
+	 * @param n the index of the board
+	 * @return a game on the board
+	 * @throws IndexOutOfBoundsException if there is no board n
+	 */
+	public Game open(int n) {
+		return Game.readFrom(payload(n));
+	}
+
+	/**
+	 * Closes the file. The mappings stay valid until they are garbage collected
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
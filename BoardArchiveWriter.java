@@ -0,0 +1,128 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a board archive, the file a {@link BoardArchive} reads. Boards are
+ * encoded as {@link Game#writeTo(ByteBuffer)} encodes them and appended one
+ * after the other as they come, and the index of their offsets is written at
+ * the end, on close. See BoardArchive for the layout of the file.
+ *
+ * @author clairewalker
+ *
+ */
+public class BoardArchiveWriter implements Closeable {
+	private final FileChannel channel;
+	// the offset of every board written so far, and of the end of the last one
+	private long[] offsets = new long[1024];
+	private int count;
+	private int maxLength;
+	// reused for every board, grown as needed
+	private ByteBuffer buf = ByteBuffer.allocate(4096);
+
+	/**
+	 * Creates the archive file, replacing any file at path
+	 *
+	 * @param path the file to write
+	 * @throws IOException if the file cannot be created
+	 */
+	public BoardArchiveWriter(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(BoardArchive.HEADER_LENGTH);
+		header.putInt(BoardArchive.MAGIC);
+		header.putInt(BoardArchive.VERSION);
+		header.flip();
+		writeFully(header);
+		offsets[0] = BoardArchive.HEADER_LENGTH;
+	}
+
+	/**
+	 * Appends the current board of game
+	 *
+	 * @param game the game whose board to append
+	 * @return the index of the board in the archive
+	 * @throws IOException if the write fails
+	 */
+	public int append(Game game) throws IOException {
+		int length = game.encodedLength();
+		if (buf.capacity() < length) {
+			buf = ByteBuffer.allocate(Math.max(length, buf.capacity() * 2));
+		}
+		buf.clear();
+		game.writeTo(buf);
+		buf.flip();
+		writeFully(buf);
+
+		if (count + 2 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		offsets[count + 1] = offsets[count] + length;
+		maxLength = Math.max(maxLength, length);
+		return count++;
+	}
+
+	/**
+	 * Draws count new boards with {@link Game#random_init()} and appends each one
+	 * as it is drawn
+	 *
+	 * @param game  the game to draw the boards with
+	 * @param count the number of boards
+	 * @throws IOException if a write fails
+	 */
+	public void appendRandom(Game game, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			game.random_init();
+			append(game);
+		}
+	}
+
+	/**
+	 * @return the number of boards appended so far
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Writes the index and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			long indexOffset = offsets[count];
+			ByteBuffer index = ByteBuffer.allocate(8 * 1024);
+			for (int i = 0; i <= count; i++) {
+				if (!index.hasRemaining()) {
+					index.flip();
+					writeFully(index);
+					index.clear();
+				}
+				index.putLong(offsets[i]);
+			}
+			index.flip();
+			writeFully(index);
+
+			ByteBuffer trailer = ByteBuffer.allocate(BoardArchive.TRAILER_LENGTH);
+			trailer.putLong(indexOffset);
+			trailer.putInt(count);
+			trailer.putInt(maxLength);
+			trailer.putInt(BoardArchive.MAGIC);
+			trailer.flip();
+			writeFully(trailer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * The compact binary encoding of a board. It is a header byte, holding the max
+ * depth in its low 5 bits and the palette index of the target color in its high
+ * 3, followed by the blocks of the tree in pre-order, clockwise from the top
+ * left child, packed into bytes high bit first:
+ *
+ * - a split bit, 1 for a block with children and 0 for a leaf. blocks at max
+ * depth are always leaves and have none
+ *
+ * - for a leaf, 3 bits of the palette index of its color in
+ * {@link IBlock#COLORS}
+ *
+ * The last byte is padded with zero bits. A random depth 3 board of 13 blocks
+ * takes 1 + 5 bytes.
+ *
+ * @author clairewalker
+ *
+ */
+class BoardCodec {
+	private static final int COLOR_BITS = 3;
+
+	private BoardCodec() {
+	}
+
+	/**
+	 * @return the number of bytes the board under root takes encoded, header
+	 *         included
+	 */
+	static int encodedLength(IBlock root, int maxDepth) {
+		return 1 + (int) ((bitLength(root, 0, maxDepth) + 7) / 8);
+	}
+
+	private static long bitLength(IBlock b, int depth, int maxDepth) {
+		int splitBit = depth < maxDepth ? 1 : 0;
+		if (b.isleaf()) {
+			return splitBit + COLOR_BITS;
+		}
+		return splitBit + bitLength(b.getTopLeftTree(), depth + 1, maxDepth)
+				+ bitLength(b.getTopRightTree(), depth + 1, maxDepth)
+				+ bitLength(b.getBotRightTree(), depth + 1, maxDepth)
+				+ bitLength(b.getBotLeftTree(), depth + 1, maxDepth);
+	}
+
+	/**
+	 * Writes the board to buf from its position on, leaving the position after it
+	 *
+	 * @throws IllegalArgumentException          if the board cannot be encoded
+	 * @throws java.nio.BufferOverflowException if buf has no room for it
+	 */
+	static void write(IBlock root, int maxDepth, Color target, ByteBuffer buf) {
+		BitWriter w = new BitWriter(buf, null);
+		try {
+			write(root, maxDepth, target, w);
+		} catch (IOException e) {
+			// only streams throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the board to out, a byte at a time, so out should be buffered
+	 *
+	 * @throws IllegalArgumentException if the board cannot be encoded
+	 */
+	static void write(IBlock root, int maxDepth, Color target, OutputStream out) throws IOException {
+		write(root, maxDepth, target, new BitWriter(null, out));
+	}
+
+	private static void write(IBlock root, int maxDepth, Color target, BitWriter w) throws IOException {
+		int targetIndex = Block.colorIndex(target);
+		if (maxDepth < 0 || maxDepth > 30 || targetIndex < 0) {
+			throw new IllegalArgumentException("max depth " + maxDepth + " or target " + target + " cannot be encoded");
+		}
+		w.write(targetIndex << 5 | maxDepth, 8);
+		writeBlock(root, 0, maxDepth, w);
+		w.flush();
+	}
+
+	private static void writeBlock(IBlock b, int depth, int maxDepth, BitWriter w) throws IOException {
+		if (depth < maxDepth) {
+			w.write(b.isleaf() ? 0 : 1, 1);
+		} else if (!b.isleaf()) {
+			throw new IllegalArgumentException("block below max depth " + maxDepth);
+		}
+		if (b.isleaf()) {
+			int colorIndex = Block.colorIndex(b.getColor());
+			if (colorIndex < 0) {
+				throw new IllegalArgumentException("color " + b.getColor() + " is not in the palette");
+			}
+			w.write(colorIndex, COLOR_BITS);
+			return;
+		}
+		writeBlock(b.getTopLeftTree(), depth + 1, maxDepth, w);
+		writeBlock(b.getTopRightTree(), depth + 1, maxDepth, w);
+		writeBlock(b.getBotRightTree(), depth + 1, maxDepth, w);
+		writeBlock(b.getBotLeftTree(), depth + 1, maxDepth, w);
+	}
+
+	/**
+	 * Reads a board from buf from its position on, leaving the position after it
+	 *
+	 * @throws java.nio.BufferUnderflowException if buf ends before the board
+	 */
+	static Game read(ByteBuffer buf) {
+		try {
+			return read(new BitReader(buf, null));
+		} catch (IOException e) {
+			// only streams throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a board from in, a byte at a time, so in should be buffered. Reads no
+	 * byte past the end of the board.
+	 *
+	 * @throws EOFException if in ends before the board
+	 */
+	static Game read(InputStream in) throws IOException {
+		return read(new BitReader(null, in));
+	}
+
+	private static Game read(BitReader r) throws IOException {
+		int header = r.read(8);
+		int maxDepth = header & 0x1F;
+		if (maxDepth > 30) {
+			throw new IllegalArgumentException("max depth " + maxDepth + " is too deep for a board");
+		}
+		Color target = IBlock.COLORS[header >>> 5];
+		int boardSize = 1 << maxDepth;
+		Block root = new Block(new Point(0, 0), new Point(boardSize, boardSize), 0, null);
+		readBlock(root, maxDepth, r);
+		return new Game(maxDepth, target, new SplittableRandom(), root);
+	}
+
+	private static void readBlock(Block b, int maxDepth, BitReader r) throws IOException {
+		if (b.depth() == maxDepth || r.read(1) == 0) {
+			b.setColor(IBlock.COLORS[r.read(COLOR_BITS)]);
+			return;
+		}
+		// the children get their colors as they are read in turn
+		b.smash(maxDepth, null, null, null, null);
+		readBlock((Block) b.getTopLeftTree(), maxDepth, r);
+		readBlock((Block) b.getTopRightTree(), maxDepth, r);
+		readBlock((Block) b.getBotRightTree(), maxDepth, r);
+		readBlock((Block) b.getBotLeftTree(), maxDepth, r);
+	}
+
+	/**
+	 * Packs bits into bytes, high bit first, for a buffer or a stream
+	 */
+	private static final class BitWriter {
+		private final ByteBuffer buf;
+		private final OutputStream out;
+		private int acc;
+		private int bits;
+
+		BitWriter(ByteBuffer buf, OutputStream out) {
+			this.buf = buf;
+			this.out = out;
+		}
+
+		void write(int value, int count) throws IOException {
+			acc = acc << count | value;
+			bits += count;
+			while (bits >= 8) {
+				bits -= 8;
+				put(acc >>> bits);
+			}
+			acc &= (1 << bits) - 1;
+		}
+
+		void flush() throws IOException {
+			if (bits > 0) {
+				put(acc << (8 - bits));
+				bits = 0;
+				acc = 0;
+			}
+		}
+
+		private void put(int b) throws IOException {
+			if (buf != null) {
+				buf.put((byte) b);
+			} else {
+				out.write(b & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Unpacks bits from bytes, high bit first, from a buffer or a stream
+	 */
+	private static final class BitReader {
+		private final ByteBuffer buf;
+		private final InputStream in;
+		private int acc;
+		private int bits;
+
+		BitReader(ByteBuffer buf, InputStream in) {
+			this.buf = buf;
+			this.in = in;
+		}
+
+		int read(int count) throws IOException {
+			while (bits < count) {
+				acc = acc << 8 | next();
+				bits += 8;
+			}
+			bits -= count;
+			int value = (acc >>> bits) & ((1 << count) - 1);
+			acc &= (1 << bits) - 1;
+			return value;
+		}
+
+		private int next() throws IOException {
+			if (buf != null) {
+				return buf.get() & 0xFF;
+			}
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException("board ends early");
+			}
+			return b;
+		}
+	}
+
+}
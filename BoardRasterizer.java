@@ -0,0 +1,269 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Renders boards to square PNG thumbnails without a display, for example to
+ * serve them. A board is rasterized straight into an array of pixels by walking
+ * its leaves and filling each one's bounds, and the pixels are encoded as an 8
+ * bit RGB PNG. Nothing of AWT but {@link Color} is used, so it runs in headless
+ * mode.
+ *
+ * Each thread keeps its own pixel, scanline and output buffers and its own
+ * deflater, reused for every thumbnail it encodes, so encoding allocates little
+ * beyond the PNG it returns. Many boards are encoded in parallel on a fork join
+ * pool.
+ *
+ * @author clairewalker
+ *
+ */
+public class BoardRasterizer {
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	// ranges of fewer boards than this are encoded by the task that reaches them
+	private static final int FORK_THRESHOLD = 16;
+
+	private final int size;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<Buffers> buffers;
+
+	/**
+	 * Creates a rasterizer running on the common fork join pool
+	 *
+	 * @param size the width and height of the thumbnails, in pixels
+	 */
+	public BoardRasterizer(int size) {
+		this(size, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param size the width and height of the thumbnails, in pixels
+	 * @param pool the pool to encode many boards on
+	 */
+	public BoardRasterizer(int size, ForkJoinPool pool) {
+		if (size < 1) {
+			throw new IllegalArgumentException("size " + size + " is not positive");
+		}
+		this.size = size;
+		this.pool = pool;
+		this.buffers = ThreadLocal.withInitial(() -> new Buffers(size));
+	}
+
+	/**
+	 * @return the width and height of the thumbnails, in pixels
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Fills pixels with the board under root, row by row, each pixel 0xRRGGBB.
+	 * Leaves with no color are black
+	 *
+	 * @param root   the root of the board
+	 * @param pixels size * size pixels to fill
+	 * @return pixels
+	 */
+	public int[] rasterize(IBlock root, int[] pixels) {
+		if (pixels.length != size * size) {
+			throw new IllegalArgumentException(pixels.length + " pixels for a " + size + " by " + size + " image");
+		}
+		// the root spans 2^max_depth units, scale it to size pixels
+		double scale = (double) size / (Block.x1(root) - Block.x0(root));
+		fillLeaves(root, scale, Block.x0(root), Block.y0(root), pixels);
+		return pixels;
+	}
+
+	private void fillLeaves(IBlock b, double scale, int originX, int originY, int[] pixels) {
+		if (b.getTopLeftTree() != null) {
+			fillLeaves(b.getTopLeftTree(), scale, originX, originY, pixels);
+			fillLeaves(b.getTopRightTree(), scale, originX, originY, pixels);
+			fillLeaves(b.getBotRightTree(), scale, originX, originY, pixels);
+			fillLeaves(b.getBotLeftTree(), scale, originX, originY, pixels);
+			return;
+		}
+		int x1 = (int) Math.round((Block.x0(b) - originX) * scale);
+		int y1 = (int) Math.round((Block.y0(b) - originY) * scale);
+		int x2 = (int) Math.round((Block.x1(b) - originX) * scale);
+		int y2 = (int) Math.round((Block.y1(b) - originY) * scale);
+		int rgb = b.getColor() == null ? 0 : b.getColor().getRGB() & 0xFFFFFF;
+		for (int y = y1; y < y2; y++) {
+			Arrays.fill(pixels, y * size + x1, y * size + x2, rgb);
+		}
+	}
+
+	/**
+	 * Renders the board under root to a PNG, with the calling thread's buffers
+	 *
+	 * @param root the root of the board
+	 * @return the bytes of the PNG file
+	 */
+	public byte[] encodePng(IBlock root) {
+		Buffers b = buffers.get();
+		rasterize(root, b.pixels);
+
+		// every scanline is a filter type byte, 0 for none, then its RGB bytes
+		byte[] raw = b.raw;
+		int at = 0;
+		for (int y = 0; y < size; y++) {
+			raw[at++] = 0;
+			for (int x = 0, p = y * size; x < size; x++, p++) {
+				int rgb = b.pixels[p];
+				raw[at++] = (byte) (rgb >>> 16);
+				raw[at++] = (byte) (rgb >>> 8);
+				raw[at++] = (byte) rgb;
+			}
+		}
+		Deflater deflater = b.deflater;
+		deflater.reset();
+		deflater.setInput(raw, 0, at);
+		deflater.finish();
+		int compressed = 0;
+		while (!deflater.finished()) {
+			if (compressed == b.compressed.length) {
+				b.compressed = Arrays.copyOf(b.compressed, b.compressed.length * 2);
+			}
+			compressed += deflater.deflate(b.compressed, compressed, b.compressed.length - compressed);
+		}
+
+		// signature, then the IHDR, IDAT and IEND chunks, 12 bytes each besides
+		// their data
+		byte[] png = new byte[SIGNATURE.length + 12 + 13 + 12 + compressed + 12];
+		System.arraycopy(SIGNATURE, 0, png, 0, SIGNATURE.length);
+		at = SIGNATURE.length;
+		byte[] header = b.header;
+		putInt(header, 0, size);
+		putInt(header, 4, size);
+		// 8 bits per sample, RGB, deflate, adaptive filtering, no interlace
+		header[8] = 8;
+		header[9] = 2;
+		header[10] = 0;
+		header[11] = 0;
+		header[12] = 0;
+		at = putChunk(png, at, "IHDR", header, 13, b.crc);
+		at = putChunk(png, at, "IDAT", b.compressed, compressed, b.crc);
+		putChunk(png, at, "IEND", header, 0, b.crc);
+		return png;
+	}
+
+	private static int putChunk(byte[] png, int at, String type, byte[] data, int length, CRC32 crc) {
+		putInt(png, at, length);
+		for (int i = 0; i < 4; i++) {
+			png[at + 4 + i] = (byte) type.charAt(i);
+		}
+		System.arraycopy(data, 0, png, at + 8, length);
+		// the checksum covers the type and the data
+		crc.reset();
+		crc.update(png, at + 4, 4 + length);
+		putInt(png, at + 8 + length, (int) crc.getValue());
+		return at + 12 + length;
+	}
+
+	private static void putInt(byte[] bytes, int at, int value) {
+		bytes[at] = (byte) (value >>> 24);
+		bytes[at + 1] = (byte) (value >>> 16);
+		bytes[at + 2] = (byte) (value >>> 8);
+		bytes[at + 3] = (byte) value;
+	}
+
+	/**
+	 * Renders many boards to PNGs in parallel
+	 *
+	 * @param roots the roots of the boards
+	 * @return the bytes of the PNG file of every board, in the same order
+	 */
+	public byte[][] encodePngs(IBlock[] roots) {
+		byte[][] pngs = new byte[roots.length][];
+		if (roots.length > 0) {
+			pool.invoke(new EncodeBoards(roots, pngs, 0, roots.length));
+		}
+		return pngs;
+	}
+
+	/**
+	 * Encodes pngs[from, to), splitting the range in half until it is small
+	 */
+	private class EncodeBoards extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final IBlock[] roots;
+		private final byte[][] pngs;
+		private final int from;
+		private final int to;
+
+		EncodeBoards(IBlock[] roots, byte[][] pngs, int from, int to) {
+			this.roots = roots;
+			this.pngs = pngs;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= FORK_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					pngs[i] = encodePng(roots[i]);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new EncodeBoards(roots, pngs, from, mid), new EncodeBoards(roots, pngs, mid, to));
+		}
+	}
+
+	/**
+	 * The buffers of one thread
+	 */
+	private static final class Buffers {
+		final int[] pixels;
+		final byte[] raw;
+		final byte[] header = new byte[13];
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		final CRC32 crc = new CRC32();
+		byte[] compressed = new byte[4096];
+
+		Buffers(int size) {
+			this.pixels = new int[size * size];
+			this.raw = new byte[size * (1 + 3 * size)];
+		}
+	}
+
+	/**
+	 * Renders random boards and reports how many thumbnails a second were encoded
+	 *
+	 * @param args the number of boards, 10000 by default, their max depth, 5 by
+	 *             default, the thumbnail size, 64 by default, and a directory to
+	 *             write the thumbnails to, if any
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int size = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		Game[] games = new GameGenerator().generate(count, maxDepth, Color.BLUE, 1L);
+		IBlock[] roots = new IBlock[count];
+		for (int i = 0; i < count; i++) {
+			roots[i] = games[i].getRoot();
+		}
+
+		BoardRasterizer rasterizer = new BoardRasterizer(size);
+		long start = System.nanoTime();
+		byte[][] pngs = rasterizer.encodePngs(roots);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d thumbnails in %.3fs, %.0f a second on %d threads%n", count, seconds, count / seconds,
+				rasterizer.pool.getParallelism());
+
+		if (args.length > 3) {
+			Path dir = Paths.get(args[3]);
+			Files.createDirectories(dir);
+			for (int i = 0; i < count; i++) {
+				Files.write(dir.resolve("board-" + i + ".png"), pngs[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+import java.awt.Color;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+/**
+ * @author ericfouh
+ */
+class ColoredBlock
+{
+    private Polygon        p;
+    private Color          col;
+    private ColoredBlock[] children;
+
+
+    /**
+     * @param p
+     * @param col
+     */
+    public ColoredBlock(Polygon p, Color col)
+    {
+        this(p, col, null);
+    }
+
+
+    /**
+     * @param p
+     * @param col
+     * @param children the blocks drawn over this one, or null for a leaf
+     */
+    public ColoredBlock(Polygon p, Color col, ColoredBlock[] children)
+    {
+        this.p = p;
+        this.col = col;
+        this.children = children;
+    }
+
+
+    /**
+     * @return the p
+     */
+    public Polygon getPolygon()
+    {
+        return this.p;
+    }
+
+
+    /**
+     * @return the col
+     */
+    public Color getColor()
+    {
+        return this.col;
+    }
+
+
+    /**
+     * @return the bounds of the polygon
+     */
+    public Rectangle getBounds()
+    {
+        return this.p.getBounds();
+    }
+
+
+    /**
+     * @return the children, top left, top right, bottom left, bottom right, or
+     *         null for a leaf
+     */
+    public ColoredBlock[] getChildren()
+    {
+        return this.children;
+    }
+
+}
@@ -0,0 +1,122 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A view of one block of a {@link CompactGame}. It holds only the game and the
+ * block's handle, every call reads or writes the game's arrays. Two views of the
+ * same block are equal.
+ * 
+ * @author clairewalker
+ *
+ */
+public class CompactBlock implements IBlock {
+	private final CompactGame game;
+	private final int handle;
+
+	/**
+	 * @param game   the game holding the block
+	 * @param handle the block's handle in the game's arrays
+	 */
+	CompactBlock(CompactGame game, int handle) {
+		this.game = game;
+		this.handle = handle;
+	}
+
+	@Override
+	public int depth() {
+		return game.depthOf(handle);
+	}
+
+	@Override
+	public void smash(int maxDepth) {
+		game.smash(handle, maxDepth);
+	}
+
+	@Override
+	public List<IBlock> children() {
+		List<IBlock> children = new ArrayList<IBlock>();
+		// if this block is a leaf, return the empty list
+		if (isleaf()) {
+			return children;
+		}
+		// else, add the children in clockwise order beginning with the top left one
+		for (int slot = 0; slot < 4; slot++) {
+			children.add(childView(slot));
+		}
+		return children;
+	}
+
+	@Override
+	public void rotate() {
+		game.rotate(handle);
+	}
+
+	@Override
+	public Color getColor() {
+		return game.colorOf(handle);
+	}
+
+	@Override
+	public void setColor(Color c) {
+		game.setColorOf(handle, c);
+	}
+
+	@Override
+	public Point getTopLeft() {
+		return new Point(game.xOf(handle), game.yOf(handle));
+	}
+
+	@Override
+	public Point getBotRight() {
+		return new Point(game.xOf(handle) + game.sizeOf(handle), game.yOf(handle) + game.sizeOf(handle));
+	}
+
+	@Override
+	public boolean isleaf() {
+		return game.isLeaf(handle);
+	}
+
+	@Override
+	public IBlock getTopLeftTree() {
+		return childView(0);
+	}
+
+	@Override
+	public IBlock getTopRightTree() {
+		return childView(1);
+	}
+
+	@Override
+	public IBlock getBotLeftTree() {
+		return childView(3);
+	}
+
+	@Override
+	public IBlock getBotRightTree() {
+		return childView(2);
+	}
+
+	/**
+	 * @return a view of the child in the given slot, or null for a leaf
+	 */
+	private IBlock childView(int slot) {
+		int child = game.child(handle, slot);
+		return child == CompactGame.NONE ? null : new CompactBlock(game, child);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CompactBlock)) {
+			return false;
+		}
+		CompactBlock other = (CompactBlock) o;
+		return other.game == game && other.handle == handle;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(game) * 31 + handle;
+	}
+
+}
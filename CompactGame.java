@@ -0,0 +1,834 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * An IGame that keeps its whole quadtree in parallel primitive arrays instead
+ * of one Block object per block. A block is an int handle into the arrays:
+ *
+ * - kids[4h .. 4h+3] its children in clockwise order starting with the top left
+ * one, or NONE if it is a leaf
+ *
+ * - parent[h], depth[h]
+ *
+ * - color[h] the index of its color in the palette, which starts out as
+ * {@link IBlock#COLORS}, or NONE for an internal block
+ *
+ * - x[h], y[h], size[h] its top left point and width (blocks are square)
+ *
+ * - levelPos[h] its position among the blocks of its depth, in bfs order
+ *
+ * That is 43 bytes a block, counting its entry in the level index, once the
+ * arrays are trimmed to the tree at the end of random_init and setRoot.
+ * Smashes grow the arrays by doubling them, so a board grown by smashing takes
+ * up to about 62 bytes a block until it is next trimmed. EngineComparison
+ * measures 64 to 68 bytes a block for Game. Moves are not reliably faster than
+ * Game's: it has measured CompactGame both behind Game, at depth 8, and up to
+ * twice as fast, so this class is for saving memory. Callers reach blocks
+ * through {@link CompactBlock} views, which hold nothing but the game and a
+ * handle, so GameFrame and code written against IBlock work unchanged.
+ *
+ * Block ids are bfs positions, as in Game, and are looked up in a level index
+ * kept up to date by every move the same way Game keeps its own. The score is
+ * cached and updated by every move as well.
+ *
+ * @author clairewalker
+ *
+ */
+public class CompactGame implements IGame {
+	/**
+	 * the handle of a missing block or the color of an internal block
+	 */
+	static final int NONE = -1;
+
+	/**
+	 * the most colors the blocks of one game can have between them
+	 */
+	static final int MAX_COLORS = Short.MAX_VALUE + 1;
+
+	private int maxDepth;
+	private Color target;
+	private int boardSize;
+	private int root = NONE;
+	// the number of handles in use
+	private int count;
+
+	private int[] kids = new int[0];
+	private int[] parent = new int[0];
+	private byte[] depth = new byte[0];
+	private short[] color = new short[0];
+	private int[] x = new int[0];
+	private int[] y = new int[0];
+	private int[] size = new int[0];
+	private int[] levelPos = new int[0];
+
+	// the colors blocks can have. starts as IBlock.COLORS and grows if a block is
+	// given any other color
+	private Color[] palette = IBlock.COLORS.clone();
+
+	// the source of every random choice this game makes
+	private final SplittableRandom random;
+
+	// the handles of each depth in bfs order, so the bfs order of the whole tree
+	// is levels[0], then levels[1] and so on
+	private int[][] levels = new int[0][];
+	private int[] levelSize = new int[0];
+	private int levelCount;
+	// the position each handle of levels[k] has in levelPos is up to date below
+	// staleFrom[k]. smashes shift the rest of a level without renumbering it,
+	// which is left to the first lookup of an out of date position
+	private int[] staleFrom = new int[0];
+
+	// the perimeter score, kept up to date by every move
+	private int score;
+
+	/**
+	 * @param max_depth
+	 * @param target
+	 */
+	public CompactGame(int max_depth, Color target) {
+		this(max_depth, target, new SplittableRandom());
+	}
+
+	/**
+	 * @param max_depth
+	 * @param target
+	 * @param random    the game's random source, used only by this game
+	 */
+	public CompactGame(int max_depth, Color target, SplittableRandom random) {
+		this.random = random;
+		this.maxDepth = max_depth;
+		this.target = target;
+
+		// set board size to 2^max depth - this is the number of rows and columns in our
+		// flattened board, and the width of the root
+		boardSize = 1 << maxDepth;
+
+		random_init();
+	}
+
+	@Override
+	public int max_depth() {
+		return maxDepth;
+	}
+
+	@Override
+	public IBlock random_init() {
+		clear();
+		// the root spans the whole board, we will never have a leaf as root, so always
+		// smash at least once. the tree is built first and indexed and scored once it
+		// is done, as Game does
+		root = newBlock(0, 0, boardSize, 0, NONE);
+		split(root, maxDepth);
+
+		// pick uniformly among the leaves until a block one level above max depth has
+		// been smashed, as Game does
+		int[] leaves = new int[16];
+		int leafCount = 0;
+		for (int slot = 0; slot < 4 && !isLeaf(root); slot++) {
+			leaves[leafCount++] = child(root, slot);
+		}
+		int depthReached = 1;
+		while (depthReached < maxDepth) {
+			int leafToSelect = random.nextInt(leafCount);
+			int h = leaves[leafToSelect];
+			leaves[leafToSelect] = leaves[--leafCount];
+			split(h, maxDepth);
+			if (!isLeaf(h)) {
+				if (leafCount + 4 > leaves.length) {
+					leaves = Arrays.copyOf(leaves, leaves.length * 2);
+				}
+				for (int slot = 0; slot < 4; slot++) {
+					leaves[leafCount++] = child(h, slot);
+				}
+			}
+			depthReached = depth[h] + 1;
+		}
+		indexTree();
+		score = edgeScore(root);
+		trimToSize();
+		return getRoot();
+	}
+
+	@Override
+	public IBlock getBlock(int pos) {
+		int h = handleAt(pos);
+		return h == NONE ? null : new CompactBlock(this, h);
+	}
+
+	@Override
+	public IBlock getRoot() {
+		return root == NONE ? null : new CompactBlock(this, root);
+	}
+
+	@Override
+	public void swap(int x, int y) {
+		// if the block numbers are equal or less than 1, do nothing
+		if (x < 1 || y < 1 || x == y) {
+			return;
+		}
+
+		// get the blocks at position x and y. if either is missing, or they don't have
+		// the same depth, do nothing
+		int a = handleAt(x);
+		int b = handleAt(y);
+		if (a == NONE || b == NONE || depth[a] != depth[b]) {
+			return;
+		}
+
+		score -= edgeScore(a) + edgeScore(b);
+
+		// each block takes the other's slot under the other's parent
+		int aParent = parent[a];
+		int bParent = parent[b];
+		int aSlot = slotOf(a);
+		int bSlot = slotOf(b);
+		kids[4 * aParent + aSlot] = b;
+		kids[4 * bParent + bSlot] = a;
+		parent[a] = bParent;
+		parent[b] = aParent;
+
+		updateChildPoints(aParent);
+		updateChildPoints(bParent);
+		swapInIndex(a, b);
+
+		score += edgeScore(a) + edgeScore(b);
+	}
+
+	@Override
+	public IBlock[][] flatten() {
+		IBlock[][] flatBoard = new IBlock[boardSize][boardSize];
+		flattenInto(root, flatBoard);
+		return flatBoard;
+	}
+
+	/**
+	 * Fills the cells covered by each leaf under h with one view of that leaf
+	 */
+	private void flattenInto(int h, IBlock[][] flatBoard) {
+		if (!isLeaf(h)) {
+			for (int slot = 0; slot < 4; slot++) {
+				flattenInto(child(h, slot), flatBoard);
+			}
+			return;
+		}
+		IBlock leaf = new CompactBlock(this, h);
+		int fromCol = toCell(x[h]);
+		int toCol = toCell(x[h] + size[h]);
+		for (int row = toCell(y[h]); row < toCell(y[h] + size[h]); row++) {
+			Arrays.fill(flatBoard[row], fromCol, toCol, leaf);
+		}
+	}
+
+	@Override
+	public int perimeter_score() {
+		return score;
+	}
+
+	/**
+	 * Scores the leaves under h that lie on the edges of the board, walking down
+	 * each edge h lies on and going only into the two children on it
+	 */
+	private int edgeScore(int h) {
+		int edgeScore = 0;
+		if (y[h] == y[root]) {
+			edgeScore += spineScore(h, 0, 1);
+		}
+		if (x[h] + size[h] == x[root] + size[root]) {
+			edgeScore += spineScore(h, 1, 2);
+		}
+		if (y[h] + size[h] == y[root] + size[root]) {
+			edgeScore += spineScore(h, 2, 3);
+		}
+		if (x[h] == x[root]) {
+			edgeScore += spineScore(h, 3, 0);
+		}
+		return edgeScore;
+	}
+
+	/**
+	 * Scores the leaves under h along one board edge. slotA and slotB are the two
+	 * child slots that lie on that edge.
+	 */
+	private int spineScore(int h, int slotA, int slotB) {
+		if (isLeaf(h)) {
+			if (!target.equals(colorOf(h))) {
+				return 0;
+			}
+			// the top and bottom edges start at slots 0 and 2 and run along x
+			int from = slotA % 2 == 0 ? x[h] : y[h];
+			return toCell(from + size[h]) - toCell(from);
+		}
+		return spineScore(child(h, slotA), slotA, slotB) + spineScore(child(h, slotB), slotA, slotB);
+	}
+
+	/**
+	 * Scales a coordinate to a row or column of the flattened board. The root
+	 * spans boardSize units unless setRoot was given a root of another extent.
+	 */
+	private int toCell(int coord) {
+		return (int) ((long) coord * boardSize / size[root]);
+	}
+
+	@Override
+	public void setRoot(IBlock root) {
+		if (root == null) {
+			clear();
+			return;
+		}
+		// copy the tree after the blocks in use, as root may be one of them, and only
+		// then drop them
+		int first = count;
+		int copy = importTree(root, NONE);
+		dropHandlesBelow(first);
+		this.root = copy - first;
+		indexTree();
+		score = edgeScore(this.root);
+		trimToSize();
+	}
+
+	/**
+	 * Drops every block with a handle below first and moves the rest down to
+	 * start at handle 0. The level index is cleared.
+	 */
+	private void dropHandlesBelow(int first) {
+		int n = count - first;
+		System.arraycopy(kids, 4 * first, kids, 0, 4 * n);
+		System.arraycopy(parent, first, parent, 0, n);
+		System.arraycopy(depth, first, depth, 0, n);
+		System.arraycopy(color, first, color, 0, n);
+		System.arraycopy(x, first, x, 0, n);
+		System.arraycopy(y, first, y, 0, n);
+		System.arraycopy(size, first, size, 0, n);
+		for (int i = 0; i < 4 * n; i++) {
+			if (kids[i] != NONE) {
+				kids[i] -= first;
+			}
+		}
+		for (int h = 0; h < n; h++) {
+			if (parent[h] != NONE) {
+				parent[h] -= first;
+			}
+		}
+		clear();
+		count = n;
+	}
+
+	/**
+	 * Copies the tree under b into the arrays
+	 *
+	 * @return the handle of the copy of b
+	 */
+	private int importTree(IBlock b, int parentHandle) {
+		int w = Block.x1(b) - Block.x0(b);
+		int h = newBlock(Block.x0(b), Block.y0(b), w, b.depth(), parentHandle);
+		if (b.isleaf()) {
+			color[h] = paletteIndex(b.getColor());
+			return h;
+		}
+		// import the children before storing them, importing may grow the arrays
+		int topLeftChild = importTree(b.getTopLeftTree(), h);
+		int topRightChild = importTree(b.getTopRightTree(), h);
+		int botRightChild = importTree(b.getBotRightTree(), h);
+		int botLeftChild = importTree(b.getBotLeftTree(), h);
+		kids[4 * h] = topLeftChild;
+		kids[4 * h + 1] = topRightChild;
+		kids[4 * h + 2] = botRightChild;
+		kids[4 * h + 3] = botLeftChild;
+		return h;
+	}
+
+	/**
+	 * @return the number of blocks in the tree
+	 */
+	public int blockCount() {
+		return count;
+	}
+
+	/**
+	 * Builds the level index of the tree under root from scratch
+	 */
+	private void indexTree() {
+		// the root is level 0, every other level is the children of the one above it
+		// in order
+		ensureRoom(0, 1);
+		appendToLevel(0, root);
+		for (int k = 0; k < levelCount; k++) {
+			for (int i = 0; i < levelSize[k]; i++) {
+				int h = levels[k][i];
+				levelPos[h] = i;
+				if (!isLeaf(h)) {
+					ensureRoom(k + 1, 4);
+					for (int slot = 0; slot < 4; slot++) {
+						appendToLevel(k + 1, child(h, slot));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the handle of the block with bfs id pos, or NONE
+	 */
+	private int handleAt(int pos) {
+		if (pos < 0) {
+			return NONE;
+		}
+		for (int k = 0; k < levelCount; k++) {
+			if (pos < levelSize[k]) {
+				return levels[k][pos];
+			}
+			pos -= levelSize[k];
+		}
+		return NONE;
+	}
+
+	/**
+	 * Gives leaf h four children of random colors, unless it is already at max
+	 * depth. Neither the level index nor the score is updated.
+	 */
+	private void split(int h, int maxDepth) {
+		if (!isLeaf(h) || depth[h] == maxDepth) {
+			return;
+		}
+		color[h] = NONE;
+		int half = size[h] / 2;
+		int d = depth[h] + 1;
+		// create the children before storing them, newBlock may grow the arrays
+		int topLeftChild = newBlock(x[h], y[h], half, d, h);
+		int topRightChild = newBlock(x[h] + half, y[h], half, d, h);
+		int botRightChild = newBlock(x[h] + half, y[h] + half, half, d, h);
+		int botLeftChild = newBlock(x[h], y[h] + half, half, d, h);
+		kids[4 * h] = topLeftChild;
+		kids[4 * h + 1] = topRightChild;
+		kids[4 * h + 2] = botRightChild;
+		kids[4 * h + 3] = botLeftChild;
+		for (int slot = 0; slot < 4; slot++) {
+			color[kids[4 * h + slot]] = (short) random.nextInt(IBlock.COLORS.length);
+		}
+	}
+
+	/**
+	 * Smashes leaf h into four children of random colors, unless it is already at
+	 * max depth
+	 */
+	void smash(int h, int maxDepth) {
+		if (!isLeaf(h) || depth[h] == maxDepth) {
+			return;
+		}
+		score -= edgeScore(h);
+		split(h, maxDepth);
+
+		// the children go right after those of the closest non-leaf block to the left
+		// of h on its level, or at the very start of the level if there is none
+		int k = depth[h];
+		ensureRoom(k + 1, 4);
+		int insertAt = 0;
+		for (int i = levelPosOf(h) - 1; i >= 0; i--) {
+			if (!isLeaf(levels[k][i])) {
+				insertAt = levelPosOf(child(levels[k][i], 3)) + 1;
+				break;
+			}
+		}
+
+		// shift the rest of the level over by four and drop the children in
+		int[] level = levels[k + 1];
+		System.arraycopy(level, insertAt, level, insertAt + 4, levelSize[k + 1] - insertAt);
+		System.arraycopy(kids, 4 * h, level, insertAt, 4);
+		levelSize[k + 1] += 4;
+		if (levelCount < k + 2) {
+			levelCount = k + 2;
+		}
+		// the handles after the children have moved over by four, renumber them only
+		// when one of their positions is looked up
+		renumber(k + 1, insertAt, insertAt + 4);
+		staleFrom[k + 1] = Math.min(staleFrom[k + 1], insertAt);
+
+		score += edgeScore(h);
+	}
+
+	/**
+	 * Rotates the children of h clockwise and moves their subtrees to match
+	 */
+	void rotate(int h) {
+		if (isLeaf(h)) {
+			return;
+		}
+		score -= edgeScore(h);
+		int temp = kids[4 * h];
+		kids[4 * h] = kids[4 * h + 3];
+		kids[4 * h + 3] = kids[4 * h + 2];
+		kids[4 * h + 2] = kids[4 * h + 1];
+		kids[4 * h + 1] = temp;
+		updateChildPoints(h);
+
+		// on every level below h, h's descendants form one run ordered by the child
+		// they descend from. the run of the old bottom left child, now the top left
+		// one, moves from the end of the run to its front. on the children's level
+		// that run is just the new top left child, the last of the four
+		int k = depth[h] + 1;
+		int start = levelPosOf(kids[4 * h]) - 3;
+		int len = 4;
+		int tail = 1;
+		while (len > 0) {
+			// find the run on the next level while this one is still in its old order
+			int nextStart = -1;
+			int nextLen = 0;
+			int nextTail = 0;
+			for (int i = start; i < start + len; i++) {
+				int c = levels[k][i];
+				if (!isLeaf(c)) {
+					if (nextStart < 0) {
+						nextStart = levelPosOf(child(c, 0));
+					}
+					nextLen += 4;
+					if (i >= start + len - tail) {
+						nextTail += 4;
+					}
+				}
+			}
+
+			// move the tail of the run to its front
+			int[] level = levels[k];
+			reverse(level, start, start + len);
+			reverse(level, start, start + tail);
+			reverse(level, start + tail, start + len);
+			renumber(k, start, start + len);
+
+			start = nextStart;
+			len = nextLen;
+			tail = nextTail;
+			k++;
+		}
+
+		score += edgeScore(h);
+	}
+
+	/**
+	 * Exchanges the places of two blocks of the same depth and of their whole
+	 * subtrees in the level index. On every level from theirs down, a's
+	 * descendants form one run and b's another, after it. Runs of the same length
+	 * just trade their handles, so swapping two subtrees of the same shape costs
+	 * O(subtree) wherever they are. Runs of different lengths also move the
+	 * handles in between, so that the level goes from a's run, middle, b's run to
+	 * b's run, middle, a's run.
+	 */
+	private void swapInIndex(int a, int b) {
+		if (levelPosOf(a) > levelPosOf(b)) {
+			int temp = a;
+			a = b;
+			b = temp;
+		}
+
+		int k = depth[a];
+		int aStart = levelPosOf(a);
+		int aLen = 1;
+		int bStart = levelPosOf(b);
+		int bLen = 1;
+
+		while (aLen > 0 || bLen > 0) {
+			// find the runs on the next level while this one is still in its old order
+			int aNext = firstChildPos(k, aStart, aStart + aLen);
+			int aKids = childCount(k, aStart, aStart + aLen);
+			int bNext = firstChildPos(k, bStart, bStart + bLen);
+			int bKids = childCount(k, bStart, bStart + bLen);
+			// an empty run sits where the children of its handles would go, which is
+			// after those of the middle handles for b and before them for a
+			if (aKids == 0 && bKids > 0) {
+				aNext = firstChildPos(k, aStart + aLen, bStart);
+				if (aNext < 0) {
+					aNext = bNext;
+				}
+			} else if (bKids == 0 && aKids > 0) {
+				bNext = aNext + aKids + childCount(k, aStart + aLen, bStart);
+			}
+
+			int[] level = levels[k];
+			if (aLen == bLen) {
+				for (int i = 0; i < aLen; i++) {
+					int temp = level[aStart + i];
+					level[aStart + i] = level[bStart + i];
+					level[bStart + i] = temp;
+				}
+				renumber(k, aStart, aStart + aLen);
+				renumber(k, bStart, bStart + bLen);
+			} else {
+				// reorder this level from a, middle, b to b, middle, a
+				int bEnd = bStart + bLen;
+				int midLen = bStart - aStart - aLen;
+				reverse(level, aStart, bEnd);
+				reverse(level, aStart, aStart + bLen);
+				reverse(level, aStart + bLen, aStart + bLen + midLen);
+				reverse(level, aStart + bLen + midLen, bEnd);
+				renumber(k, aStart, bEnd);
+			}
+
+			aStart = aNext;
+			aLen = aKids;
+			bStart = bNext;
+			bLen = bKids;
+			k++;
+		}
+	}
+
+	/**
+	 * @return the position on level k + 1 of the first child of the handles in
+	 *         levels[k][from, to), or -1 if they are all leaves
+	 */
+	private int firstChildPos(int k, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (!isLeaf(levels[k][i])) {
+				return levelPosOf(child(levels[k][i], 0));
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of children of the handles in levels[k][from, to)
+	 */
+	private int childCount(int k, int from, int to) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (!isLeaf(levels[k][i])) {
+				count += 4;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reverses level[from, to) in place
+	 */
+	private static void reverse(int[] level, int from, int to) {
+		for (int i = from, j = to - 1; i < j; i++, j--) {
+			int temp = level[i];
+			level[i] = level[j];
+			level[j] = temp;
+		}
+	}
+
+	/**
+	 * @return the position of h on its level, renumbering the stale part of the
+	 *         level first if levelPos[h] is out of date
+	 */
+	private int levelPosOf(int h) {
+		int k = depth[h];
+		int pos = levelPos[h];
+		if (pos < levelSize[k] && levels[k][pos] == h) {
+			return pos;
+		}
+		renumber(k, staleFrom[k], levelSize[k]);
+		staleFrom[k] = Integer.MAX_VALUE;
+		return levelPos[h];
+	}
+
+	/**
+	 * Stores the current position of each handle in levels[k][from, to)
+	 */
+	private void renumber(int k, int from, int to) {
+		for (int i = from; i < to; i++) {
+			levelPos[levels[k][i]] = i;
+		}
+	}
+
+	/**
+	 * Grows the level index so that level k exists and has room for extra more
+	 * handles
+	 */
+	private void ensureRoom(int k, int extra) {
+		if (k >= levels.length) {
+			int n = Math.max(k + 1, levels.length * 2);
+			int oldLength = levels.length;
+			levels = Arrays.copyOf(levels, n);
+			levelSize = Arrays.copyOf(levelSize, n);
+			staleFrom = Arrays.copyOf(staleFrom, n);
+			for (int i = oldLength; i < n; i++) {
+				levels[i] = new int[4];
+				staleFrom[i] = Integer.MAX_VALUE;
+			}
+		}
+		int capacity = levelSize[k] + extra;
+		if (levels[k].length < capacity) {
+			levels[k] = Arrays.copyOf(levels[k], Math.max(capacity, levels[k].length * 2));
+		}
+	}
+
+	/**
+	 * Adds handle h to the end of level k
+	 */
+	private void appendToLevel(int k, int h) {
+		levelPos[h] = levelSize[k];
+		levels[k][levelSize[k]++] = h;
+		if (levelCount < k + 1) {
+			levelCount = k + 1;
+		}
+	}
+
+	/**
+	 * Recomputes the points of every block under h from h's
+	 */
+	private void updateChildPoints(int h) {
+		int half = size[h] / 2;
+		for (int slot = 0; slot < 4; slot++) {
+			int c = child(h, slot);
+			x[c] = slot == 1 || slot == 2 ? x[h] + half : x[h];
+			y[c] = slot >= 2 ? y[h] + half : y[h];
+			size[c] = half;
+			if (!isLeaf(c)) {
+				updateChildPoints(c);
+			}
+		}
+	}
+
+	/**
+	 * @return which of its parent's child slots h is in
+	 */
+	private int slotOf(int h) {
+		int p = parent[h];
+		int slot = 0;
+		while (kids[4 * p + slot] != h) {
+			slot++;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the handle of child slot (0 top left, 1 top right, 2 bottom right, 3
+	 *         bottom left) of h, or NONE if h is a leaf
+	 */
+	int child(int h, int slot) {
+		return kids[4 * h + slot];
+	}
+
+	/**
+	 * @return the handle of the parent of h, or NONE for the root
+	 */
+	int parentOf(int h) {
+		return parent[h];
+	}
+
+	boolean isLeaf(int h) {
+		return kids[4 * h] == NONE;
+	}
+
+	int depthOf(int h) {
+		return depth[h];
+	}
+
+	int xOf(int h) {
+		return x[h];
+	}
+
+	int yOf(int h) {
+		return y[h];
+	}
+
+	int sizeOf(int h) {
+		return size[h];
+	}
+
+	Color colorOf(int h) {
+		return color[h] == NONE ? null : palette[color[h]];
+	}
+
+	/**
+	 * Gives leaf h the color c, adding c to the palette if it is new. Internal
+	 * blocks can't have color, so for them this does nothing.
+	 *
+	 * @throws IllegalStateException if c is new and the palette already holds
+	 *                               {@link #MAX_COLORS} colors
+	 */
+	void setColorOf(int h, Color c) {
+		if (!isLeaf(h)) {
+			return;
+		}
+		short index = paletteIndex(c);
+		score -= edgeScore(h);
+		color[h] = index;
+		score += edgeScore(h);
+	}
+
+	/**
+	 * @return the index of c in the palette, adding it if it is new, or NONE for
+	 *         null
+	 */
+	private short paletteIndex(Color c) {
+		if (c == null) {
+			return NONE;
+		}
+		for (int i = 0; i < palette.length; i++) {
+			if (palette[i].equals(c)) {
+				return (short) i;
+			}
+		}
+		if (palette.length == MAX_COLORS) {
+			throw new IllegalStateException("a board can't have more than " + MAX_COLORS + " colors");
+		}
+		palette = Arrays.copyOf(palette, palette.length + 1);
+		palette[palette.length - 1] = c;
+		return (short) (palette.length - 1);
+	}
+
+	/**
+	 * Adds a leaf block to the arrays, growing them as needed
+	 *
+	 * @return its handle
+	 */
+	private int newBlock(int bx, int by, int bsize, int bdepth, int parentHandle) {
+		if (count == parent.length) {
+			int n = Math.max(16, count * 2);
+			kids = Arrays.copyOf(kids, 4 * n);
+			parent = Arrays.copyOf(parent, n);
+			depth = Arrays.copyOf(depth, n);
+			color = Arrays.copyOf(color, n);
+			x = Arrays.copyOf(x, n);
+			y = Arrays.copyOf(y, n);
+			size = Arrays.copyOf(size, n);
+			levelPos = Arrays.copyOf(levelPos, n);
+		}
+		int h = count++;
+		Arrays.fill(kids, 4 * h, 4 * h + 4, NONE);
+		parent[h] = parentHandle;
+		depth[h] = (byte) bdepth;
+		color[h] = NONE;
+		x[h] = bx;
+		y[h] = by;
+		size[h] = bsize;
+		return h;
+	}
+
+	/**
+	 * Shrinks the arrays to the blocks in use and the level index to the blocks
+	 * of each level, once a whole tree has been built. newBlock doubles them as
+	 * they fill up, which would otherwise leave up to half of them unused
+	 */
+	private void trimToSize() {
+		kids = Arrays.copyOf(kids, 4 * count);
+		parent = Arrays.copyOf(parent, count);
+		depth = Arrays.copyOf(depth, count);
+		color = Arrays.copyOf(color, count);
+		x = Arrays.copyOf(x, count);
+		y = Arrays.copyOf(y, count);
+		size = Arrays.copyOf(size, count);
+		levelPos = Arrays.copyOf(levelPos, count);
+		for (int k = 0; k < levelCount; k++) {
+			levels[k] = Arrays.copyOf(levels[k], levelSize[k]);
+		}
+	}
+
+	/**
+	 * Drops every block, keeping the arrays for reuse
+	 */
+	private void clear() {
+		count = 0;
+		root = NONE;
+		score = 0;
+		for (int k = 0; k < levelCount; k++) {
+			levelSize[k] = 0;
+			staleFrom[k] = Integer.MAX_VALUE;
+		}
+		levelCount = 0;
+	}
+
+}
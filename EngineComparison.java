@@ -0,0 +1,117 @@
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Compares the memory use and move throughput of {@link Game} and
+ * {@link CompactGame} on full boards, where every block above max depth has
+ * been smashed. Run it with the max depths to compare as arguments, e.g.
+ * <code>java EngineComparison 6 8 10</code>.
+ *
+ * @author clairewalker
+ *
+ */
+public class EngineComparison {
+	private static final int MOVES = 5000;
+
+	/**
+	 * @param args the max depths to compare, 6 and 8 by default
+	 */
+	public static void main(String[] args) {
+		int[] depths = { 6, 8 };
+		if (args.length > 0) {
+			depths = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				depths[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%-12s %5s %10s %14s %12s %14s%n", "engine", "depth", "blocks", "bytes/block", "moves/s",
+				"score calls/s");
+		for (int maxDepth : depths) {
+			// build each board once to warm up, then measure a fresh one
+			fullGame(maxDepth);
+			long before = usedMemory();
+			Game game = fullGame(maxDepth);
+			long gameBytes = usedMemory() - before;
+			report("Game", game, game.bfs().size(), gameBytes);
+			game = null;
+
+			fullCompactGame(maxDepth);
+			before = usedMemory();
+			CompactGame compact = fullCompactGame(maxDepth);
+			long compactBytes = usedMemory() - before;
+			report("CompactGame", compact, compact.blockCount(), compactBytes);
+		}
+	}
+
+	/**
+	 * Times random rotates and swaps, and score calls, on game and prints a row of
+	 * the comparison
+	 */
+	private static void report(String engine, IGame game, int blocks, long bytes) {
+		Random rnd = new Random(1);
+		long start = System.nanoTime();
+		for (int move = 0; move < MOVES; move++) {
+			if (move % 2 == 0) {
+				game.getBlock(rnd.nextInt(blocks)).rotate();
+			} else {
+				game.swap(rnd.nextInt(blocks), rnd.nextInt(blocks));
+			}
+		}
+		double movesPerSecond = MOVES / ((System.nanoTime() - start) / 1e9);
+
+		start = System.nanoTime();
+		int scores = MOVES / 10;
+		for (int i = 0; i < scores; i++) {
+			game.perimeter_score();
+		}
+		double scoresPerSecond = scores / ((System.nanoTime() - start) / 1e9);
+
+		System.out.printf("%-12s %5d %10d %14.1f %12.0f %14.0f%n", engine, game.max_depth(), blocks,
+				(double) bytes / blocks, movesPerSecond, scoresPerSecond);
+	}
+
+	/**
+	 * @return a game whose every block above max depth is smashed
+	 */
+	private static Game fullGame(int maxDepth) {
+		Game game = new Game(maxDepth, Color.BLUE);
+		Block root = new Block(new Point(0, 0), new Point(1 << maxDepth, 1 << maxDepth), 0, null);
+		smashAll(root, maxDepth);
+		game.setRoot(root);
+		return game;
+	}
+
+	/**
+	 * @return a compact game whose every block above max depth is smashed
+	 */
+	private static CompactGame fullCompactGame(int maxDepth) {
+		CompactGame game = new CompactGame(maxDepth, Color.BLUE);
+		Block root = new Block(new Point(0, 0), new Point(1 << maxDepth, 1 << maxDepth), 0, null);
+		smashAll(root, maxDepth);
+		game.setRoot(root);
+		return game;
+	}
+
+	/**
+	 * Smashes b and every block under it down to max depth
+	 */
+	private static void smashAll(IBlock b, int maxDepth) {
+		b.smash(maxDepth);
+		for (IBlock kid : b.children()) {
+			smashAll(kid, maxDepth);
+		}
+	}
+
+	/**
+	 * @return the heap in use after a full collection
+	 */
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+}
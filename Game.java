@@ -1,33 +1,117 @@
 import java.awt.Color;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * @author clairewalker
  *
  */
 public class Game implements IGame {
+	// the four edges of the board, for walking down them
+	private static final int TOP = 0;
+	private static final int RIGHT = 1;
+	private static final int BOTTOM = 2;
+	private static final int LEFT = 3;
+	// a parallel flatten fills blocks covering fewer cells than this in the task
+	// that reaches them rather than forking them off
+	private static final int PARALLEL_FLATTEN_CELLS = 1 << 14;
+
 	private int maxDepth;
 	private Color target;
 	private IBlock root;
 	private int boardSize;
+	// bfs index of the tree: levels[k] holds the blocks at depth k in bfs order,
+	// levelSize[k] how many of its slots are used and levelCount the number of
+	// non-empty levels. the id of a block is the size of all levels above it plus
+	// its position within its own level
+	private Block[][] levels = new Block[0][];
+	private int[] levelSize = new int[0];
+	private int levelCount;
+	// the position each block of levels[k] stores is up to date below staleFrom[k].
+	// smashes and their undos shift the rest of a level without renumbering it,
+	// which is left to the first lookup of an out of date position
+	private int[] staleFrom = new int[0];
+	// perimeter score of the current tree. it is computed in full when a root is
+	// set and then moved by the change in score of whatever subtree a move touches
+	private int score;
+	// zobrist hash of the current tree, the xor of a key for every leaf. it is
+	// moved by xoring out the leaves of whatever subtree a move touches and xoring
+	// in the leaves it has after the move
+	private long hash;
+	// the source of every random choice this game makes, for random_init and for
+	// the colors of smashed blocks
+	private final SplittableRandom random;
+	// when set, flatten and flattenInto split the board into subtrees filled on the
+	// common fork join pool
+	private boolean parallelFlatten;
+	// records swaps, rotates and smashes so they can be undone and redone, or null
+	private MoveJournal journal;
 
 	/**
 	 * @param max_depth
 	 * @param target
 	 */
 	public Game(int max_depth, Color target) {
+		this(max_depth, target, new SplittableRandom());
+	}
+
+	/**
+	 * Creates a game whose board, and every smash after it, is replayed exactly
+	 * by any other game created with the same seed
+	 * 
+	 * @param max_depth
+	 * @param target
+	 * @param seed      the seed of the game's random source
+	 */
+	public Game(int max_depth, Color target, long seed) {
+		this(max_depth, target, new SplittableRandom(seed));
+	}
+
+	/**
+	 * Creates a game drawing from its own random source. Games on different
+	 * threads should each get their own, for example split from a common one, so
+	 * that they never contend on it.
+	 * 
+	 * @param max_depth
+	 * @param target
+	 * @param random    the game's random source, used only by this game
+	 */
+	public Game(int max_depth, Color target, SplittableRandom random) {
+		this(max_depth, target, random, null);
+	}
+
+	/**
+	 * Creates a game on an already built board, or on a random one if root is null
+	 * 
+	 * @param max_depth
+	 * @param target
+	 * @param random    the game's random source, used only by this game
+	 * @param root      the root of the board, spanning 2^max_depth units
+	 */
+	Game(int max_depth, Color target, SplittableRandom random, IBlock root) {
 
 		this.maxDepth = max_depth;
 		this.target = target;
-		this.root = random_init();
+		this.random = random;
 
 		// set board size to 2^max depth - this is the number of rows and columns in our
-		// flattened board
-		boardSize = (int) (Math.pow(2, maxDepth));
+		// flattened board, and the extent of the root's points
+		boardSize = 1 << maxDepth;
 
+		if (root == null) {
+			random_init();
+		} else {
+			setRoot(root);
+		}
 	}
 
 	@Override
@@ -35,40 +119,58 @@ public class Game implements IGame {
 		return maxDepth;
 	}
 
+	/**
+	 * @return the color the perimeter score counts
+	 */
+	public Color getTarget() {
+		return target;
+	}
+
 	@Override
 	public IBlock random_init() {
 		Point topL = new Point(0, 0);
-		Point botR = new Point(8, 8);
+		Point botR = new Point(boardSize, boardSize);
 
-		// create the root of this board to have the points (0,0) and (8,8) with depth 0
-		// and no parent
-		this.root = new Block(topL, botR, 0, null);
+		// create the root of this board to have the points (0,0) and
+		// (boardSize,boardSize) with depth 0 and no parent, so that every unit cell of
+		// the flattened board is one unit wide whatever the max depth
+		Block newRoot = new Block(topL, botR, 0, null);
 		// smash the root. We will never have a leaf as root, so always must smash at
-		// least once
-		root.smash(maxDepth);
-		// after initial smash, the board has a depth of 1 and there are 5 blocks
+		// least once. the tree is built before it is attached to this game, so the
+		// smashes below do not pay for index updates one at a time
+		newRoot.smash(maxDepth, random);
+		// after initial smash, the board has a depth of 1 and its leaves are the
+		// root's four children
 		int depthReached = 1;
-		int totalblocks = 5;
+		List<IBlock> leaves = new ArrayList<IBlock>(newRoot.children());
 		// loop through and smash blocks until we have reached the max depth for the
 		// board
 		while (depthReached < maxDepth) {
-			// select a random block from the board
-			int blockToSelect = (int) (Math.random() * totalblocks);
-			IBlock blockToSmash = getBlock(blockToSelect);
-			// if that block is a leaf, smash it
-			if (blockToSmash.isleaf()) {
-				blockToSmash.smash(maxDepth);
-				// increase count of total blocks by 4
-				totalblocks += 4;
-				// update the depth reached
-				depthReached = blockToSmash.depth() + 1;
-			}
+			// select a random leaf from the board. picking uniformly among the leaves
+			// gives the same boards as picking any block and retrying until it is a
+			// leaf, without the retries
+			int leafToSelect = random.nextInt(leaves.size());
+			IBlock blockToSmash = leaves.get(leafToSelect);
+			// it is no longer a leaf, so move the last leaf into its slot
+			leaves.set(leafToSelect, leaves.get(leaves.size() - 1));
+			leaves.remove(leaves.size() - 1);
+			// smash it and add its children to the leaves
+			((Block) blockToSmash).smash(maxDepth, random);
+			leaves.addAll(blockToSmash.children());
+			// update the depth reached
+			depthReached = blockToSmash.depth() + 1;
 		}
+		// index the finished tree in one pass
+		setRoot(newRoot);
 		// return the root of the board
 		return root;
 	}
 
-	private Queue<IBlock> bfs() {
+	/**
+	 * @return every block of the tree in breadth first order. this is the
+	 *         reference traversal the block index is checked against
+	 */
+	Queue<IBlock> bfs() {
 		Queue<IBlock> qTemp = new LinkedList<IBlock>();
 		Queue<IBlock> qReturn = new LinkedList<IBlock>();
 		qTemp.add(root);
@@ -95,21 +197,21 @@ public class Game implements IGame {
 
 	@Override
 	public IBlock getBlock(int pos) {
-		Queue<IBlock> q = bfs();
-		// if pos is less than 0 or more than the size of the queue
-		if (pos < 0 || pos >= q.size()) {
+		// if pos is less than 0, there is no such block
+		if (pos < 0) {
 			return null;
 		}
 
-		// else, add all blocks from q to arrayList
-		List<IBlock> bfsListOfBlocks = new ArrayList<IBlock>();
-		while (q.size() != 0) {
-			IBlock temp = q.poll();
-			bfsListOfBlocks.add(temp);
+		// walk down the levels of the index until pos falls inside one of them
+		for (int k = 0; k < levelCount; k++) {
+			if (pos < levelSize[k]) {
+				return levels[k][pos];
+			}
+			pos -= levelSize[k];
 		}
 
-		// return the block at the desired position
-		return bfsListOfBlocks.get(pos);
+		// pos is past the last block of the tree
+		return null;
 	}
 
 	@Override
@@ -138,6 +240,10 @@ public class Game implements IGame {
 			return;
 		}
 
+		// take both subtrees' current share out of the score
+		score -= edgeScore(a) + edgeScore(b);
+		hash ^= leafHash(a) ^ leafHash(b);
+
 		// calculate the difference between the first block's position and its parent's
 		// position
 		int aDif = calculateDifBtwParentChildPositions(x);
@@ -155,10 +261,94 @@ public class Game implements IGame {
 		// substitute block b with block a
 		swapChild(bDif, b, a);
 
+		// the swapped blocks now hang off each other's parent
+		Block aParent = ((Block) a).getParent();
+		((Block) a).setParent(((Block) b).getParent());
+		((Block) b).setParent(aParent);
+
+		// move both subtrees to their new places in the block index
+		swapInIndex((Block) a, (Block) b);
+
 		// recursively update points for the parent of block a's children, and for the
 		// parent of block b's children
-		((Block) a).getParent().updatePoints(((Block) a).getParent().children());
-		((Block) b).getParent().updatePoints(((Block) b).getParent().children());
+		((Block) a).getParent().updateChildPoints();
+		((Block) b).getParent().updateChildPoints();
+
+		// and add their share at their new places back
+		score += edgeScore(a) + edgeScore(b);
+		hash ^= leafHash(a) ^ leafHash(b);
+
+		if (journal != null) {
+			journal.recordSwap(x, y);
+		}
+	}
+
+	/**
+	 * Chooses how flatten and flattenInto run. In parallel, blocks covering at
+	 * least PARALLEL_FLATTEN_CELLS cells are split into tasks for their four
+	 * quadrants on the common fork join pool. The quadrants cover disjoint cells of
+	 * the grid, and only leaves are written, so the result is exactly the same as
+	 * the sequential one.
+	 * 
+	 * @param parallel true to flatten in parallel, false to flatten sequentially
+	 */
+	public void setParallelFlatten(boolean parallel) {
+		this.parallelFlatten = parallel;
+	}
+
+	/**
+	 * @return true if flatten and flattenInto run in parallel
+	 */
+	public boolean isParallelFlatten() {
+		return parallelFlatten;
+	}
+
+	/**
+	 * Starts recording this game's swaps, rotates and smashes in journal, so they
+	 * can be undone and redone. Whatever journal was recording before stops.
+	 * 
+	 * @param journal the journal to record in, emptied first, or null to stop
+	 *                recording
+	 */
+	public void setJournal(MoveJournal journal) {
+		this.journal = journal;
+		if (journal != null) {
+			journal.attach(this);
+		}
+	}
+
+	/**
+	 * @return the journal recording this game's moves, or null
+	 */
+	public MoveJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Undoes the last recorded move that has not been undone yet
+	 * 
+	 * @return true if a move was undone, false if there is no journal or no move
+	 *         left in it to undo
+	 */
+	public boolean undo() {
+		return journal != null && journal.undo();
+	}
+
+	/**
+	 * Redoes the last undone move, as long as no new move has been made since
+	 * 
+	 * @return true if a move was redone, false if there is no journal or no move
+	 *         to redo
+	 */
+	public boolean redo() {
+		return journal != null && journal.redo();
+	}
+
+	/**
+	 * @return the random source of this game
+	 */
+	SplittableRandom getRandom() {
+		return random;
 	}
 
 	private int calculateDifBtwParentChildPositions(int x) {
@@ -199,13 +389,18 @@ public class Game implements IGame {
 		// create a 2D array the size of the board at maxdepth, as calculated in
 		// boardSize
 		IBlock[][] flatBoard = new IBlock[boardSize][boardSize];
-		// find difference btw 3 and the maxdepth of this board
-		// the board's points are deafult (0,0) and (8,8). 8 is 2^3, so we say the
-		// default depth is 3 so that we can use each block's top left and bottom
-		// right points to calculate which portion of the 2D array it should fill
-		int depthDif = 3 - maxDepth;
-		// calculate depthDifPower as 2^depthDif as calculated above
-		int depthDifPower = (int) Math.pow(2, Math.abs(depthDif));
+		// the root's points span the whole board. random_init makes that boardSize
+		// units wide, but a root passed to setRoot may span any power of two, so block
+		// points are scaled from the root's extent to cells of the flattened board
+		int extent = Block.x1(root) - Block.x0(root);
+
+		if (parallelFlatten) {
+			// every cell is covered by exactly one leaf, which is the last block a
+			// breadth first fill writes to it, so filling the leaves alone gives the
+			// same board
+			new FlattenTask(root, flatBoard, null, extent).invoke();
+			return flatBoard;
+		}
 
 		// use a breadth first search to go through the quadtree block by block
 		Queue<IBlock> q = new LinkedList<IBlock>();
@@ -215,40 +410,20 @@ public class Game implements IGame {
 		while (q.size() != 0) {
 			temp = q.poll();
 			// find the top left x and y points for this IBlock
-			int topLeftX = temp.getTopLeft().getX();
-			int topLeftY = temp.getTopLeft().getY();
+			int topLeftX = Block.x0(temp);
+			int topLeftY = Block.y0(temp);
 			// find the bot right x and y points for this IBlock
-			int botRightX = temp.getBotRight().getX();
-			int botRightY = temp.getBotRight().getY();
+			int botRightX = Block.x1(temp);
+			int botRightY = Block.y1(temp);
 
 			// assign spaces in the 2D array to this block based on its points on the board
-			// if this board has a depth equal to or larger than 3
-			if (depthDif >= 0) {
-				// loop through the 2D array for x values from this IBlock's top left x
-				// coordinate to its bottom right x coordinate-1
-				// adjust each calculation by dividing by the depthDifPower
-				for (int i = topLeftX / depthDifPower; i <= botRightX / depthDifPower - 1; i++) {
-					// loop through the 2D array for y values from this IBlock's top left y
-					// coordinate to its bottom right y coordinate-1
-					// adjust each calculation by dividing by the depthDifPower
-					for (int j = topLeftY / depthDifPower; j <= botRightY / depthDifPower - 1; j++) {
-						flatBoard[j][i] = temp;
-					}
-				}
-			}
-
-			// else if board has depthDif smaller than 0
-			else {
-				// loop through the 2D array for x values from this IBlock's top left x
-				// coordinate to its bottom right x coordinate-1
-				// adjust each calculation by multiplying by the depthDifPower
-				for (int i = topLeftX * depthDifPower; i <= botRightX * depthDifPower - 1; i++) {
-					// loop through the 2D array for x values from this IBlock's top left y
-					// coordinate to its bottom right y coordinate-1
-					// adjust each calculation by multiplying by the depthDifPower
-					for (int j = topLeftY * depthDifPower; j <= botRightY * depthDifPower - 1; j++) {
-						flatBoard[j][i] = temp;
-					}
+			// loop through the 2D array for x values from this IBlock's top left x
+			// coordinate to its bottom right x coordinate-1
+			for (int i = toCell(topLeftX, extent); i < toCell(botRightX, extent); i++) {
+				// loop through the 2D array for y values from this IBlock's top left y
+				// coordinate to its bottom right y coordinate-1
+				for (int j = toCell(topLeftY, extent); j < toCell(botRightY, extent); j++) {
+					flatBoard[j][i] = temp;
 				}
 			}
 
@@ -265,68 +440,730 @@ public class Game implements IGame {
 		return flatBoard;
 	}
 
+	/**
+	 * Flattens the quadtree into a caller provided grid of palette indices, so
+	 * the same buffer can be reused across calls. Only leaves are written, each
+	 * cell once, with the index of its leaf's color in {@link IBlock#COLORS}, or -1
+	 * for a color outside the palette. This method does not mutate the tree.
+	 * 
+	 * @param colorIndexGrid the grid to fill, row by row, holding at least
+	 *                       boardSize * boardSize cells. cell (row, col) is at
+	 *                       row * boardSize + col
+	 */
+	public void flattenInto(int[] colorIndexGrid) {
+		if (colorIndexGrid.length < boardSize * boardSize) {
+			throw new IllegalArgumentException(
+					"grid holds " + colorIndexGrid.length + " cells, board needs " + boardSize * boardSize);
+		}
+		int extent = Block.x1(root) - Block.x0(root);
+		if (parallelFlatten) {
+			new FlattenTask(root, null, colorIndexGrid, extent).invoke();
+		} else {
+			flattenInto(root, colorIndexGrid, extent);
+		}
+	}
+
+	/**
+	 * Writes the palette index of every leaf under b over the cells it covers
+	 */
+	private void flattenInto(IBlock b, int[] colorIndexGrid, int extent) {
+		// descend straight to the leaves, internal blocks would only be overwritten
+		if (!b.isleaf()) {
+			flattenInto(b.getTopLeftTree(), colorIndexGrid, extent);
+			flattenInto(b.getTopRightTree(), colorIndexGrid, extent);
+			flattenInto(b.getBotRightTree(), colorIndexGrid, extent);
+			flattenInto(b.getBotLeftTree(), colorIndexGrid, extent);
+			return;
+		}
+
+		int colorIndex = Block.colorIndex(b.getColor());
+		int fromCol = toCell(Block.x0(b), extent);
+		int toCol = toCell(Block.x1(b), extent);
+		int toRow = toCell(Block.y1(b), extent);
+		for (int row = toCell(Block.y0(b), extent); row < toRow; row++) {
+			Arrays.fill(colorIndexGrid, row * boardSize + fromCol, row * boardSize + toCol, colorIndex);
+		}
+	}
+
+	/**
+	 * Fills the cells of the leaves under one block, forking a task for each
+	 * quadrant while the block covers at least PARALLEL_FLATTEN_CELLS cells. It
+	 * fills either a grid of blocks, for flatten, or one of palette indices, for
+	 * flattenInto.
+	 */
+	private class FlattenTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final IBlock block;
+		private final IBlock[][] flatBoard;
+		private final int[] colorIndexGrid;
+		private final int extent;
+
+		FlattenTask(IBlock block, IBlock[][] flatBoard, int[] colorIndexGrid, int extent) {
+			this.block = block;
+			this.flatBoard = flatBoard;
+			this.colorIndexGrid = colorIndexGrid;
+			this.extent = extent;
+		}
+
+		@Override
+		protected void compute() {
+			int width = toCell(Block.x1(block), extent) - toCell(Block.x0(block), extent);
+			if (block.isleaf() || (long) width * width < PARALLEL_FLATTEN_CELLS) {
+				fill(block);
+				return;
+			}
+			invokeAll(new FlattenTask(block.getTopLeftTree(), flatBoard, colorIndexGrid, extent),
+					new FlattenTask(block.getTopRightTree(), flatBoard, colorIndexGrid, extent),
+					new FlattenTask(block.getBotRightTree(), flatBoard, colorIndexGrid, extent),
+					new FlattenTask(block.getBotLeftTree(), flatBoard, colorIndexGrid, extent));
+		}
+
+		/**
+		 * Writes every leaf under b over the cells it covers
+		 */
+		private void fill(IBlock b) {
+			if (colorIndexGrid != null) {
+				flattenInto(b, colorIndexGrid, extent);
+				return;
+			}
+			if (!b.isleaf()) {
+				fill(b.getTopLeftTree());
+				fill(b.getTopRightTree());
+				fill(b.getBotRightTree());
+				fill(b.getBotLeftTree());
+				return;
+			}
+			int fromCol = toCell(Block.x0(b), extent);
+			int toCol = toCell(Block.x1(b), extent);
+			int toRow = toCell(Block.y1(b), extent);
+			for (int row = toCell(Block.y0(b), extent); row < toRow; row++) {
+				Arrays.fill(flatBoard[row], fromCol, toCol, b);
+			}
+		}
+	}
+
+	/**
+	 * Scales a coordinate of a block point to a row or column of the flattened
+	 * board
+	 * 
+	 * @param coord  the x or y coordinate of a block point
+	 * @param extent the width of the root block in the same units
+	 * @return the matching row or column of the flattened board
+	 */
+	private int toCell(int coord, int extent) {
+		return (int) ((long) coord * boardSize / extent);
+	}
+
 	@Override
 	public int perimeter_score() {
-		int score = 0;
-		IBlock[][] board = this.flatten();
+		return score;
+	}
+
+	/**
+	 * Recomputes the perimeter score from the tree by walking down its four edges
+	 * only, and stores it as the current score. Moves keep the score current on
+	 * their own; this is for trees changed behind the game's back, such as through
+	 * the child setters of Block.
+	 * 
+	 * @return the score of the user (corner blocs count twice)
+	 */
+	public int recompute_perimeter_score() {
+		score = root == null ? 0 : edgeScore(root);
+		return score;
+	}
+
+	/**
+	 * Writes the board in the compact binary encoding of {@link BoardCodec}: a
+	 * header byte, then a split bit and, for leaves, a 3 bit palette index for
+	 * every block in pre-order
+	 * 
+	 * @param buf the buffer to write to, from its position on
+	 * @throws IllegalArgumentException if a leaf or the target has a color outside
+	 *                                  the palette
+	 */
+	public void writeTo(ByteBuffer buf) {
+		BoardCodec.write(root, maxDepth, target, buf);
+	}
+
+	/**
+	 * Writes the board in the compact binary encoding, a byte at a time
+	 * 
+	 * @param out the stream to write to, which should be buffered
+	 * @throws IOException              if out fails
+	 * @throws IllegalArgumentException if a leaf or the target has a color outside
+	 *                                  the palette
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		BoardCodec.write(root, maxDepth, target, out);
+	}
+
+	/**
+	 * @return the number of bytes writeTo writes
+	 */
+	public int encodedLength() {
+		return BoardCodec.encodedLength(root, maxDepth);
+	}
+
+	/**
+	 * Reads a board written by writeTo straight into a new game's tree
+	 * 
+	 * @param buf the buffer to read from, from its position on. its position is
+	 *            left after the board
+	 * @return a game on the board
+	 */
+	public static Game readFrom(ByteBuffer buf) {
+		return BoardCodec.read(buf);
+	}
+
+	/**
+	 * Reads a board written by writeTo straight into a new game's tree, reading no
+	 * byte past its end
+	 * 
+	 * @param in the stream to read from, which should be buffered
+	 * @return a game on the board
+	 * @throws IOException if in fails or ends before the board does
+	 */
+	public static Game readFrom(InputStream in) throws IOException {
+		return BoardCodec.read(in);
+	}
+
+	/**
+	 * A Zobrist hash of the board: the xor of a key for every leaf, made from its
+	 * top left point, its width and its palette index. Equal boards have equal
+	 * hashes, in any game, so it can be used to deduplicate boards and as the key
+	 * of a table of boards. Moves keep it current by xoring out the keys of the
+	 * leaves they change and xoring in the new ones.
+	 * 
+	 * @return the hash of the current board
+	 */
+	public long board_hash() {
+		return hash;
+	}
+
+	/**
+	 * Recomputes the board hash from every leaf of the tree and stores it as the
+	 * current hash, for trees changed behind the game's back
+	 * 
+	 * @return the hash of the current board
+	 */
+	public long recompute_board_hash() {
+		hash = root == null ? 0 : leafHash(root);
+		return hash;
+	}
+
+	/**
+	 * @param b the root of a subtree
+	 * @return the xor of the keys of the leaves under b
+	 */
+	private long leafHash(IBlock b) {
+		return leafHash(b, Block.x0(b), Block.y0(b), Block.x1(b) - Block.x0(b));
+	}
 
-		// if any corner block's color is equal to the target color, increase the score
-		// by 2
-		if (board[0][0].getColor().equals(this.target)) {
-			score += 2;
+	/**
+	 * Works the children's points out from b's on the way down rather than reading
+	 * them
+	 * 
+	 * @return the xor of the keys of the leaves under b, whose top left point is
+	 *         (x, y) and whose width is size
+	 */
+	private long leafHash(IBlock b, int x, int y, int size) {
+		if (b.isleaf()) {
+			// a color outside the palette is keyed by its rgb value instead
+			int colorIndex = Block.colorIndex(b.getColor());
+			long colorKey = colorIndex >= 0 || b.getColor() == null ? colorIndex : 0x100000000L | b.getColor().getRGB();
+			return mix(mix(mix(((long) x << 32 | y & 0xFFFFFFFFL) + 0x9E3779B97F4A7C15L) + size) + colorKey);
+		}
+		int half = size / 2;
+		return leafHash(b.getTopLeftTree(), x, y, half) ^ leafHash(b.getTopRightTree(), x + half, y, half)
+				^ leafHash(b.getBotRightTree(), x + half, y + half, half)
+				^ leafHash(b.getBotLeftTree(), x, y + half, half);
+	}
+
+	/**
+	 * @return the bits of z mixed, as SplittableRandom mixes its seeds. this
+	 *         stands in for a table of random Zobrist keys too big to store
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * Computes how much the blocks under b add to the perimeter score by walking
+	 * the spine of every board edge b lies on.
+	 * 
+	 * @param b the root of the subtree to score
+	 * @return the part of the perimeter score covered by b
+	 */
+	private int edgeScore(IBlock b) {
+		int edgeScore = 0;
+		if (Block.y0(b) == Block.y0(root)) {
+			edgeScore += spineScore(b, TOP);
 		}
-		if (board[0][boardSize - 1].getColor().equals(this.target)) {
-			score += 2;
+		if (Block.x1(b) == Block.x1(root)) {
+			edgeScore += spineScore(b, RIGHT);
 		}
-		if (board[boardSize - 1][0].getColor().equals(this.target)) {
-			score += 2;
+		if (Block.y1(b) == Block.y1(root)) {
+			edgeScore += spineScore(b, BOTTOM);
 		}
-		if (board[boardSize - 1][boardSize - 1].getColor().equals(this.target)) {
-			score += 2;
+		if (Block.x0(b) == Block.x0(root)) {
+			edgeScore += spineScore(b, LEFT);
 		}
+		return edgeScore;
+	}
 
-		// increase score by 1 if a block in the top row (but not in a corner) is the
-		// target color
-		int i = 0;
-		for (int j = 1; j < boardSize - 1; j++) {
-			if (board[i][j].getColor().equals(this.target)) {
-				score++;
+	/**
+	 * Walks down one board edge from b, which lies on it, going only into the two
+	 * children that lie on the same edge. Each leaf of the target color scores the
+	 * number of cells it covers along the edge, so a corner cell, lying on two
+	 * edges, counts twice.
+	 * 
+	 * @param b    a block on the edge
+	 * @param edge TOP, RIGHT, BOTTOM or LEFT
+	 * @return the part of the edge's score covered by b
+	 */
+	private int spineScore(IBlock b, int edge) {
+		if (b.isleaf()) {
+			// a leaf of another color scores nothing
+			if (!this.target.equals(b.getColor())) {
+				return 0;
 			}
+			int extent = Block.x1(root) - Block.x0(root);
+			if (edge == TOP || edge == BOTTOM) {
+				return toCell(Block.x1(b), extent) - toCell(Block.x0(b), extent);
+			}
+			return toCell(Block.y1(b), extent) - toCell(Block.y0(b), extent);
+		}
+
+		// else, add up the two children on the same edge
+		if (edge == TOP) {
+			return spineScore(b.getTopLeftTree(), edge) + spineScore(b.getTopRightTree(), edge);
+		}
+		if (edge == RIGHT) {
+			return spineScore(b.getTopRightTree(), edge) + spineScore(b.getBotRightTree(), edge);
 		}
+		if (edge == BOTTOM) {
+			return spineScore(b.getBotRightTree(), edge) + spineScore(b.getBotLeftTree(), edge);
+		}
+		return spineScore(b.getBotLeftTree(), edge) + spineScore(b.getTopLeftTree(), edge);
+	}
+
+	@Override
+	public void setRoot(IBlock root) {
+		replaceRoot(root);
+		// the journal's moves belong to the old board
+		if (journal != null) {
+			journal.clear();
+		}
+	}
+
+	/**
+	 * Puts a new tree in place of the current one without clearing the journal,
+	 * for the journal to restore one of its checkpoints
+	 * 
+	 * @param root the root of the new tree
+	 */
+	void replaceRoot(IBlock root) {
+		this.root = root;
+		attach(root);
+		recompute_perimeter_score();
+		recompute_board_hash();
+	}
 
-		// increase score by 1 if a block in the bottom row (but not in a corner) is the
-		// target color
-		i = boardSize - 1;
-		for (int j = 1; j < boardSize - 1; j++) {
-			if (board[i][j].getColor().equals(this.target)) {
-				score++;
+	/**
+	 * Makes this game the owner of the tree under root and rebuilds the block
+	 * index from scratch. Blocks of the previous tree are released so that
+	 * mutating them no longer touches this game's index.
+	 * 
+	 * @param newRoot the root of the tree to index
+	 */
+	private void attach(IBlock newRoot) {
+		// release the blocks of the previously indexed tree
+		for (int k = 0; k < levelCount; k++) {
+			for (int i = 0; i < levelSize[k]; i++) {
+				if (levels[k][i].getGame() == this) {
+					levels[k][i].setGame(null);
+				}
+				levels[k][i] = null;
 			}
+			levelSize[k] = 0;
+			staleFrom[k] = Integer.MAX_VALUE;
+		}
+		levelCount = 0;
+		if (newRoot == null) {
+			return;
 		}
 
-		// increase score by 1 if a block in the first column (but not in a corner) is
-		// the target color
-		int j = 0;
-		for (i = 1; i < boardSize - 1; i++) {
-			if (board[i][j].getColor().equals(this.target)) {
-				score++;
+		// the root is level 0, every other level is the children of the one above it
+		// in order
+		ensureRoom(0, 1);
+		levels[0][0] = (Block) newRoot;
+		levelSize[0] = 1;
+		levelCount = 1;
+		for (int k = 0; k < levelCount; k++) {
+			for (int i = 0; i < levelSize[k]; i++) {
+				Block b = levels[k][i];
+				b.setGame(this);
+				b.setLevelPos(i);
+				if (!b.isleaf()) {
+					ensureRoom(k + 1, 4);
+					appendToLevel(k + 1, (Block) b.getTopLeftTree());
+					appendToLevel(k + 1, (Block) b.getTopRightTree());
+					appendToLevel(k + 1, (Block) b.getBotRightTree());
+					appendToLevel(k + 1, (Block) b.getBotLeftTree());
+				}
 			}
 		}
+	}
+
+	/**
+	 * Called by a block of this game right before a smash, rotate or color change
+	 * mutates its subtree. Takes the subtree's current share out of the score so
+	 * that the matching after-call can add its new share back.
+	 * 
+	 * @param b the block about to change
+	 */
+	void blockChanging(Block b) {
+		score -= edgeScore(b);
+		hash ^= leafHash(b);
+	}
+
+	/**
+	 * Called by a leaf of this game right after its color changed
+	 * 
+	 * @param b        the block whose color changed
+	 * @param oldColor the color b had before
+	 */
+	void blockRecolored(Block b, Color oldColor) {
+		score += edgeScore(b);
+		hash ^= leafHash(b);
+		if (journal != null) {
+			journal.recordRecolor(idOf(b), oldColor, b.getColor());
+		}
+	}
 
-		// increase score by 1 if a block in the last column (but not in a corner) is
-		// the target color
-		j = boardSize - 1;
-		for (i = 1; i < boardSize - 1; i++) {
-			if (board[i][j].getColor().equals(this.target)) {
-				score++;
+	/**
+	 * Called by a block of this game right after it has been smashed. Inserts its
+	 * four new children into the level below it.
+	 * 
+	 * @param b        the block that was smashed
+	 * @param oldColor the color b had as a leaf
+	 */
+	void blockSmashed(Block b, Color oldColor) {
+		int k = b.depth();
+		ensureRoom(k + 1, 4);
+
+		// the children go right after those of the closest non-leaf block to the left
+		// of b on its level, or at the very start of the level if there is none
+		int insertAt = 0;
+		for (int i = levelPosOf(b) - 1; i >= 0; i--) {
+			if (!levels[k][i].isleaf()) {
+				insertAt = levelPosOf((Block) levels[k][i].getBotLeftTree()) + 1;
+				break;
 			}
 		}
 
-		return score;
+		// shift the rest of the level over by four and drop the children in
+		Block[] level = levels[k + 1];
+		System.arraycopy(level, insertAt, level, insertAt + 4, levelSize[k + 1] - insertAt);
+		level[insertAt] = (Block) b.getTopLeftTree();
+		level[insertAt + 1] = (Block) b.getTopRightTree();
+		level[insertAt + 2] = (Block) b.getBotRightTree();
+		level[insertAt + 3] = (Block) b.getBotLeftTree();
+		levelSize[k + 1] += 4;
+		if (levelCount < k + 2) {
+			levelCount = k + 2;
+		}
+		// the blocks after the children have moved over by four, renumber them
+		// only when one of their positions is looked up
+		renumber(k + 1, insertAt, insertAt + 4);
+		staleFrom[k + 1] = Math.min(staleFrom[k + 1], insertAt);
+
+		score += edgeScore(b);
+		hash ^= leafHash(b);
+
+		if (journal != null) {
+			journal.recordSmash(idOf(b), oldColor, b);
+		}
 	}
 
-	@Override
-	public void setRoot(IBlock root) {
-		this.root = root;
+	/**
+	 * Called by a block of this game right after a smash of it was undone. Removes
+	 * its four old children, which were leaves, from the level below it.
+	 * 
+	 * @param b          the block that is a leaf again
+	 * @param firstChild its old top left child, the first of the four in the index
+	 */
+	void blockUnsmashed(Block b, Block firstChild) {
+		int k = b.depth() + 1;
+		int removeAt = levelPosOf(firstChild);
+		Block[] level = levels[k];
+		for (int i = removeAt; i < removeAt + 4; i++) {
+			// release the old children so mutating them no longer touches the index
+			level[i].setGame(null);
+		}
+
+		// shift the rest of the level back over the children
+		System.arraycopy(level, removeAt + 4, level, removeAt, levelSize[k] - removeAt - 4);
+		levelSize[k] -= 4;
+		for (int i = levelSize[k]; i < levelSize[k] + 4; i++) {
+			level[i] = null;
+		}
+		// the blocks after the children have moved back by four, renumber them only
+		// when one of their positions is looked up
+		staleFrom[k] = Math.min(staleFrom[k], removeAt);
+		while (levelCount > 0 && levelSize[levelCount - 1] == 0) {
+			levelCount--;
+		}
+
+		score += edgeScore(b);
+		hash ^= leafHash(b);
+	}
+
+	/**
+	 * @param b a block of this game
+	 * @return the id of b, its position in breadth first order
+	 */
+	int idOf(Block b) {
+		int id = levelPosOf(b);
+		for (int k = 0; k < b.depth(); k++) {
+			id += levelSize[k];
+		}
+		return id;
+	}
+
+	/**
+	 * Called by a block of this game right after its children have been rotated.
+	 * On every level below b, b's descendants form one run ordered by the child
+	 * they descend from. Rotating b moves the run of its old bottom left child from
+	 * the end of that run to its front, which is a right rotation of the run.
+	 * 
+	 * @param b the block that was rotated
+	 */
+	void blockRotated(Block b) {
+		// on the children's level the run is the four children and the old bottom
+		// left child, which is now the top left one, is its last entry
+		int k = b.depth() + 1;
+		int start = levelPosOf((Block) b.getTopLeftTree()) - 3;
+		int len = 4;
+		int tail = 1;
+
+		while (len > 0) {
+			// find the run on the next level while this one is still in its old order
+			int nextStart = -1;
+			int nextLen = 0;
+			int nextTail = 0;
+			for (int i = start; i < start + len; i++) {
+				Block c = levels[k][i];
+				if (!c.isleaf()) {
+					if (nextStart < 0) {
+						nextStart = levelPosOf((Block) c.getTopLeftTree());
+					}
+					nextLen += 4;
+					if (i >= start + len - tail) {
+						nextTail += 4;
+					}
+				}
+			}
+
+			// move the tail of the run to its front
+			moveBlockToFront(levels[k], start, start + len - tail, start + len);
+			renumber(k, start, start + len);
+
+			start = nextStart;
+			len = nextLen;
+			tail = nextTail;
+			k++;
+		}
+
+		score += edgeScore(b);
+		hash ^= leafHash(b);
+
+		if (journal != null) {
+			journal.recordRotate(idOf(b));
+		}
+	}
+
+	/**
+	 * Exchanges the places of two blocks of the same depth and of their whole
+	 * subtrees in the block index. On every level from theirs down, a's
+	 * descendants form one run and b's another, after it. Runs of the same length
+	 * just trade their blocks, so swapping two subtrees of the same shape costs
+	 * O(subtree) wherever they are. Runs of different lengths also move the blocks
+	 * in between, so that the level goes from a's run, middle, b's run to b's run,
+	 * middle, a's run.
+	 * 
+	 * @param a a swapped block
+	 * @param b the other swapped block
+	 */
+	private void swapInIndex(Block a, Block b) {
+		if (levelPosOf(a) > levelPosOf(b)) {
+			Block temp = a;
+			a = b;
+			b = temp;
+		}
+
+		int k = a.depth();
+		int aStart = levelPosOf(a);
+		int aLen = 1;
+		int bStart = levelPosOf(b);
+		int bLen = 1;
+
+		while (aLen > 0 || bLen > 0) {
+			// find the runs on the next level while this one is still in its old order
+			int aNext = firstChildPos(k, aStart, aStart + aLen);
+			int aKids = childCount(k, aStart, aStart + aLen);
+			int bNext = firstChildPos(k, bStart, bStart + bLen);
+			int bKids = childCount(k, bStart, bStart + bLen);
+			// an empty run sits where the children of its blocks would go, which is
+			// after those of the middle blocks for b and before them for a
+			if (aKids == 0 && bKids > 0) {
+				aNext = firstChildPos(k, aStart + aLen, bStart);
+				if (aNext < 0) {
+					aNext = bNext;
+				}
+			} else if (bKids == 0 && aKids > 0) {
+				bNext = aNext + aKids + childCount(k, aStart + aLen, bStart);
+			}
+
+			Block[] level = levels[k];
+			if (aLen == bLen) {
+				for (int i = 0; i < aLen; i++) {
+					Block temp = level[aStart + i];
+					level[aStart + i] = level[bStart + i];
+					level[bStart + i] = temp;
+				}
+				renumber(k, aStart, aStart + aLen);
+				renumber(k, bStart, bStart + bLen);
+			} else {
+				// reorder this level from a, middle, b to b, middle, a
+				int bEnd = bStart + bLen;
+				int midLen = bStart - aStart - aLen;
+				reverse(level, aStart, bEnd);
+				reverse(level, aStart, aStart + bLen);
+				reverse(level, aStart + bLen, aStart + bLen + midLen);
+				reverse(level, aStart + bLen + midLen, bEnd);
+				renumber(k, aStart, bEnd);
+			}
+
+			aStart = aNext;
+			aLen = aKids;
+			bStart = bNext;
+			bLen = bKids;
+			k++;
+		}
+	}
+
+	/**
+	 * @return the position on level k + 1 of the first child of the blocks in
+	 *         levels[k][from, to), or -1 if they are all leaves
+	 */
+	private int firstChildPos(int k, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (!levels[k][i].isleaf()) {
+				return levelPosOf((Block) levels[k][i].getTopLeftTree());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of children of the blocks in levels[k][from, to)
+	 */
+	private int childCount(int k, int from, int to) {
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (!levels[k][i].isleaf()) {
+				count += 4;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Moves level[mid, end) in front of level[start, mid), keeping the order
+	 * inside each part
+	 */
+	private static void moveBlockToFront(Block[] level, int start, int mid, int end) {
+		reverse(level, start, end);
+		reverse(level, start, start + end - mid);
+		reverse(level, start + end - mid, end);
+	}
+
+	/**
+	 * Reverses level[from, to) in place
+	 */
+	private static void reverse(Block[] level, int from, int to) {
+		for (int i = from, j = to - 1; i < j; i++, j--) {
+			Block temp = level[i];
+			level[i] = level[j];
+			level[j] = temp;
+		}
+	}
+
+	/**
+	 * @param b a block of this game
+	 * @return the position of b on its level, renumbering the stale part of the
+	 *         level first if the position b stores is out of date
+	 */
+	private int levelPosOf(Block b) {
+		int k = b.depth();
+		int pos = b.getLevelPos();
+		if (pos < levelSize[k] && levels[k][pos] == b) {
+			return pos;
+		}
+		renumber(k, staleFrom[k], levelSize[k]);
+		staleFrom[k] = Integer.MAX_VALUE;
+		return b.getLevelPos();
+	}
+
+	/**
+	 * Stores the current position of each block in levels[k][from, to) on the
+	 * block itself
+	 */
+	private void renumber(int k, int from, int to) {
+		for (int i = from; i < to; i++) {
+			levels[k][i].setLevelPos(i);
+		}
+	}
+
+	/**
+	 * Grows the index so that level k exists and has room for extra more blocks
+	 */
+	private void ensureRoom(int k, int extra) {
+		if (k >= levels.length) {
+			int n = Math.max(k + 1, levels.length * 2);
+			Block[][] grownLevels = new Block[n][];
+			int[] grownSizes = new int[n];
+			int[] grownStaleFrom = new int[n];
+			System.arraycopy(levels, 0, grownLevels, 0, levels.length);
+			System.arraycopy(levelSize, 0, grownSizes, 0, levelSize.length);
+			System.arraycopy(staleFrom, 0, grownStaleFrom, 0, staleFrom.length);
+			for (int i = levels.length; i < n; i++) {
+				grownLevels[i] = new Block[4];
+				grownStaleFrom[i] = Integer.MAX_VALUE;
+			}
+			levels = grownLevels;
+			levelSize = grownSizes;
+			staleFrom = grownStaleFrom;
+		}
+		int capacity = levelSize[k] + extra;
+		if (levels[k].length < capacity) {
+			Block[] grown = new Block[Math.max(capacity, levels[k].length * 2)];
+			System.arraycopy(levels[k], 0, grown, 0, levelSize[k]);
+			levels[k] = grown;
+		}
+	}
+
+	/**
+	 * Adds b to the end of level k
+	 */
+	private void appendToLevel(int k, Block b) {
+		levels[k][levelSize[k]++] = b;
+		if (levelCount < k + 1) {
+			levelCount = k + 1;
+		}
 	}
 
 }
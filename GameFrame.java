@@ -1,10 +1,4 @@
-import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.Polygon;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.Rectangle;
 import javax.swing.*;
 
 /**
@@ -38,6 +32,16 @@ public class GameFrame
     }
 
 
+    /**
+     * Draws the board through a cached image of its leaves, for deep boards
+     * @param buffered true to draw through the cached image
+     */
+    public void setBuffered(boolean buffered)
+    {
+        this.squares.setBuffered(buffered);
+    }
+
+
     /**
      * 
      */
@@ -54,12 +58,20 @@ public class GameFrame
      */
     public void clear()
     {
+        // detach the old panel, or it keeps being painted under the new one
+        getContentPane().remove(this.squares);
+        boolean buffered = this.squares.isBuffered();
         this.squares = new Squares();
+        this.squares.setBuffered(buffered);
+        getContentPane().add(this.squares);
+        revalidate();
+        repaint();
     }
 
 
     /**
-     * @param block
+     * Redraws the whole board from its root, replacing what was shown
+     * @param block the root of the quad tree to be displayed
      */
     public void refresh_board(IBlock block)
     {
@@ -67,113 +79,23 @@ public class GameFrame
         this.revalidate();
         this.repaint();
     }
-}
-
-
-
-
-/**
- * @author ericfouh
- */
-class Squares
-    extends JPanel
-{
-    /**
-     * 
-     */
-    private static final long  serialVersionUID = 1L;
-    private static final int   PREF_W           = 500;
-    private static final int   PREF_H           = PREF_W;
-    private List<ColoredBlock> squares          = new ArrayList<ColoredBlock>();
 
 
     /**
-     * @param q the root of the quad tree to be displayed
+     * Redraws only the given blocks, each of which may have been rotated,
+     * smashed or swapped into place since the board was last drawn. Only the
+     * area they cover is repainted
+     * @param blocks the blocks touched by the last operation
      */
-    public void addQuadrant(IBlock q)
+    public void refresh_blocks(IBlock... blocks)
     {
-        if (q != null)
-        {
-            Polygon p = new Polygon();
-            p.addPoint(q.getTopLeft().getX() * 50, q.getTopLeft().getY() * 50);
-            p.addPoint(q.getBotRight().getX() * 50, q.getTopLeft().getY() * 50);
-            p.addPoint(
-                q.getBotRight().getX() * 50,
-                q.getBotRight().getY() * 50);
-            p.addPoint(q.getTopLeft().getX() * 50, q.getBotRight().getY() * 50);
-
-            ColoredBlock cb = new ColoredBlock(p, q.getColor());
-            this.squares.add(cb);
-            addQuadrant(q.getTopLeftTree());
-            addQuadrant(q.getTopRightTree());
-            addQuadrant(q.getBotLeftTree());
-            addQuadrant(q.getBotRightTree());
-        }
-    }
-
-
-    @Override
-    public Dimension getPreferredSize()
-    {
-        return new Dimension(PREF_W, PREF_H);
-    }
-
-
-    @Override
-    protected void paintComponent(Graphics g)
-    {
-        super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D)g;
-
-        for (ColoredBlock rect : this.squares)
+        for (IBlock b : blocks)
         {
-            g2.setColor(Color.BLACK);
-            g2.drawPolygon(rect.getPolygon());
-            g2.setColor(rect.getColor());
-            g2.fillPolygon(rect.getPolygon());
+            Rectangle dirty = this.squares.updateQuadrant(b);
+            if (dirty != null)
+            {
+                this.squares.repaint(dirty);
+            }
         }
     }
-
-}
-
-
-
-
-/**
- * @author ericfouh
- */
-class ColoredBlock
-{
-    private Polygon p;
-    private Color   col;
-
-
-    /**
-     * @param p
-     * @param col
-     */
-    public ColoredBlock(Polygon p, Color col)
-    {
-        this.p = p;
-        this.col = col;
-    }
-
-
-    /**
-     * @return the p
-     */
-    public Polygon getPolygon()
-    {
-        return this.p;
-    }
-
-
-    /**
-     * @return the col
-     */
-    public Color getColor()
-    {
-        return this.col;
-    }
-
 }
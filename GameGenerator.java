@@ -0,0 +1,247 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates random boards on a fork join pool, either many boards at once or a
+ * single very deep one.
+ * 
+ * Every random choice comes from a SplittableRandom split off, in a fixed
+ * order, from one seeded at the start. Tasks never share a random source, so
+ * they do not contend, and a seed gives the same boards whatever the number of
+ * threads or the order the tasks run in.
+ * 
+ * @author clairewalker
+ *
+ */
+public class GameGenerator {
+	// subtrees with fewer blocks than this are built by the task that reaches them
+	// rather than forked off
+	private static final int FORK_THRESHOLD = 1024;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a generator running on the common fork join pool
+	 */
+	public GameGenerator() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool the pool to run the generation tasks on
+	 */
+	public GameGenerator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Builds count random boards in parallel, each as {@link Game#random_init()}
+	 * would, with its own random source.
+	 * 
+	 * @param count    the number of boards
+	 * @param maxDepth the max depth of every board
+	 * @param target   the target color of every board
+	 * @param seed     the seed the boards' random sources are split from
+	 * @return the boards, board i always the same for the same seed
+	 */
+	public Game[] generate(int count, int maxDepth, Color target, long seed) {
+		// split every board's random source off up front so that board i gets the
+		// same one however the work is divided
+		SplittableRandom seeds = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[count];
+		for (int i = 0; i < count; i++) {
+			randoms[i] = seeds.split();
+		}
+		Game[] games = new Game[count];
+		pool.invoke(new GenerateGames(games, randoms, maxDepth, target, 0, count));
+		return games;
+	}
+
+	/**
+	 * Builds one random board with the same distribution of shapes as
+	 * {@link Game#random_init()}, building independent subtrees in parallel.
+	 * 
+	 * The shape is drawn first, sequentially, as random_init draws it: picking
+	 * uniformly among the leaves until a block one level above max depth has been
+	 * smashed. That only needs a few ints per block. The Block objects are then
+	 * created top down, every subtree of FORK_THRESHOLD blocks or more in a task
+	 * of its own with its own random source for the children's colors.
+	 * 
+	 * @param maxDepth the max depth of the board
+	 * @param target   the target color of the board
+	 * @param seed     the seed of the board's random sources
+	 * @return the board
+	 */
+	public Game generateLarge(int maxDepth, Color target, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		Shape shape = new Shape(maxDepth, random.split());
+		Block root = new Block(new Point(0, 0), new Point(1 << maxDepth, 1 << maxDepth), 0, null);
+		pool.invoke(new BuildSubtree(shape, 0, root, maxDepth, random.split()));
+		return new Game(maxDepth, target, random, root);
+	}
+
+	/**
+	 * Builds games[from, to), splitting the range in half until it is one game
+	 */
+	private static class GenerateGames extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Game[] games;
+		private final SplittableRandom[] randoms;
+		private final int maxDepth;
+		private final Color target;
+		private final int from;
+		private final int to;
+
+		GenerateGames(Game[] games, SplittableRandom[] randoms, int maxDepth, Color target, int from, int to) {
+			this.games = games;
+			this.randoms = randoms;
+			this.maxDepth = maxDepth;
+			this.target = target;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				games[from] = new Game(maxDepth, target, randoms[from]);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new GenerateGames(games, randoms, maxDepth, target, from, mid),
+					new GenerateGames(games, randoms, maxDepth, target, mid, to));
+		}
+	}
+
+	/**
+	 * Smashes the block for node of the shape, and the blocks below it, down to
+	 * the shape's leaves
+	 */
+	private static class BuildSubtree extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Shape shape;
+		private final int node;
+		private final Block block;
+		private final int maxDepth;
+		private final SplittableRandom random;
+		// subtrees handed off to tasks of their own, joined before this one finishes
+		private final List<BuildSubtree> forked = new ArrayList<BuildSubtree>();
+
+		BuildSubtree(Shape shape, int node, Block block, int maxDepth, SplittableRandom random) {
+			this.shape = shape;
+			this.node = node;
+			this.block = block;
+			this.maxDepth = maxDepth;
+			this.random = random;
+		}
+
+		@Override
+		protected void compute() {
+			build(node, block);
+			for (BuildSubtree task : forked) {
+				task.join();
+			}
+		}
+
+		private void build(int n, Block b) {
+			int firstChild = shape.firstChild[n];
+			if (firstChild == Shape.NONE) {
+				return;
+			}
+			b.smash(maxDepth, random);
+			Block[] kids = { (Block) b.getTopLeftTree(), (Block) b.getTopRightTree(), (Block) b.getBotRightTree(),
+					(Block) b.getBotLeftTree() };
+			for (int slot = 0; slot < 4; slot++) {
+				int child = firstChild + slot;
+				if (shape.size[child] >= FORK_THRESHOLD) {
+					// big enough to be worth a task, with a random source of its own
+					BuildSubtree task = new BuildSubtree(shape, child, kids[slot], maxDepth, random.split());
+					task.fork();
+					forked.add(task);
+				} else {
+					build(child, kids[slot]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The shape of a random board, drawn as Game.random_init draws it. Nodes are
+	 * numbered in the order they are created, the root is 0 and the four children
+	 * of a node are numbered consecutively in clockwise order from the top left.
+	 */
+	private static class Shape {
+		static final int NONE = -1;
+		int[] firstChild = new int[64];
+		int[] depth = new int[64];
+		// the number of blocks in each node's subtree
+		int[] size;
+		int count;
+
+		Shape(int maxDepth, SplittableRandom random) {
+			add(0);
+			int[] leaves = new int[16];
+			int leafCount = 0;
+			if (maxDepth > 0) {
+				leafCount = smash(0, leaves, 0);
+			}
+			int depthReached = 1;
+			while (depthReached < maxDepth) {
+				int leafToSelect = random.nextInt(leafCount);
+				int n = leaves[leafToSelect];
+				leaves[leafToSelect] = leaves[--leafCount];
+				if (depth[n] < maxDepth) {
+					if (leafCount + 4 > leaves.length) {
+						leaves = Arrays.copyOf(leaves, leaves.length * 2);
+					}
+					leafCount = smash(n, leaves, leafCount);
+				}
+				depthReached = depth[n] + 1;
+			}
+
+			// children are numbered after their parents, so adding sizes up from the
+			// last node back gives every subtree's size
+			size = new int[count];
+			for (int n = count - 1; n >= 0; n--) {
+				size[n] += 1;
+				if (firstChild[n] != NONE) {
+					for (int slot = 0; slot < 4; slot++) {
+						size[n] += size[firstChild[n] + slot];
+					}
+				}
+			}
+		}
+
+		/**
+		 * Gives node n four children and appends them to leaves
+		 *
+		 * @return the new number of leaves
+		 */
+		private int smash(int n, int[] leaves, int leafCount) {
+			firstChild[n] = count;
+			for (int slot = 0; slot < 4; slot++) {
+				leaves[leafCount++] = add(depth[n] + 1);
+			}
+			return leafCount;
+		}
+
+		/**
+		 * @return the number of a new leaf node at depth d
+		 */
+		private int add(int d) {
+			if (count == depth.length) {
+				firstChild = Arrays.copyOf(firstChild, count * 2);
+				depth = Arrays.copyOf(depth, count * 2);
+			}
+			firstChild[count] = NONE;
+			depth[count] = d;
+			return count++;
+		}
+	}
+
+}
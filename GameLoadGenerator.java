@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays many sessions against a {@link GameServer} at once and measures how
+ * long every move takes to be answered. The sessions are shared out between a
+ * few client threads. In every round a thread sends one random move on each of
+ * its sessions, then reads every answer, so the server always has as many
+ * moves in flight as there are sessions.
+ *
+ * Run it as <code>java GameLoadGenerator [port [sessions [moves [threads]]]]
+ * </code> against a running server.
+ *
+ * @author clairewalker
+ *
+ */
+public class GameLoadGenerator {
+	private final InetSocketAddress address;
+	private final int sessions;
+	private final int moves;
+	private final int threads;
+	private final long seed;
+
+	/**
+	 * @param address  the server's address
+	 * @param sessions the number of sessions to play
+	 * @param moves    the number of moves to play in every session
+	 * @param threads  the number of client threads
+	 * @param seed     the seed the moves are drawn from
+	 */
+	public GameLoadGenerator(InetSocketAddress address, int sessions, int moves, int threads, long seed) {
+		this.address = address;
+		this.sessions = sessions;
+		this.moves = moves;
+		this.threads = threads;
+		this.seed = seed;
+	}
+
+	/**
+	 * Connects every session, plays all their moves and disconnects them
+	 *
+	 * @return the latencies of all the moves
+	 * @throws IOException if a connection fails or the server answers a move with
+	 *                     anything but a score
+	 */
+	public Result run() throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		SplittableRandom random = new SplittableRandom(seed);
+		try {
+			List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+			for (int t = 0; t < threads; t++) {
+				// share the sessions out as evenly as they go
+				int count = sessions / threads + (t < sessions % threads ? 1 : 0);
+				futures.add(pool.submit(new Client(count, random.split())));
+			}
+			long[] latencies = new long[0];
+			for (Future<long[]> future : futures) {
+				long[] part = future.get();
+				int at = latencies.length;
+				latencies = Arrays.copyOf(latencies, at + part.length);
+				System.arraycopy(part, 0, latencies, at, part.length);
+			}
+			return new Result(latencies);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * The sessions of one client thread
+	 */
+	private final class Client implements Callable<long[]> {
+		private final int count;
+		private final SplittableRandom random;
+
+		Client(int count, SplittableRandom random) {
+			this.count = count;
+			this.random = random;
+		}
+
+		@Override
+		public long[] call() throws IOException {
+			SocketChannel[] channels = new SocketChannel[count];
+			ByteBuffer[] in = new ByteBuffer[count];
+			long[] sent = new long[count];
+			long[] latencies = new long[count * moves];
+			int done = 0;
+			try {
+				for (int s = 0; s < count; s++) {
+					channels[s] = SocketChannel.open(address);
+					channels[s].socket().setTcpNoDelay(true);
+					in[s] = ByteBuffer.allocate(64);
+				}
+				for (int m = 0; m < moves; m++) {
+					for (int s = 0; s < count; s++) {
+						String move = nextMove();
+						sent[s] = System.nanoTime();
+						ByteBuffer out = ByteBuffer.wrap(move.getBytes(StandardCharsets.US_ASCII));
+						while (out.hasRemaining()) {
+							channels[s].write(out);
+						}
+					}
+					for (int s = 0; s < count; s++) {
+						String reply = readLine(channels[s], in[s]);
+						latencies[done++] = System.nanoTime() - sent[s];
+						if (reply.startsWith("ERR")) {
+							throw new IOException("server answered " + reply);
+						}
+					}
+				}
+				return latencies;
+			} finally {
+				for (SocketChannel channel : channels) {
+					if (channel != null) {
+						channel.close();
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return a random move on one of the first blocks, which every board has
+		 */
+		private String nextMove() {
+			int a = random.nextInt(1, 5);
+			switch (random.nextInt(10)) {
+			case 0:
+				return "smash " + a + "\n";
+			case 1:
+				return "score\n";
+			case 2:
+			case 3:
+			case 4:
+				return "swap " + a + " " + random.nextInt(1, 5) + "\n";
+			default:
+				return "rotate " + random.nextInt(0, 5) + "\n";
+			}
+		}
+	}
+
+	/**
+	 * Reads one line, blocking until all of it has arrived
+	 *
+	 * @return the line without its line ending
+	 */
+	private static String readLine(SocketChannel channel, ByteBuffer in) throws IOException {
+		while (true) {
+			for (int i = 0; i < in.position(); i++) {
+				if (in.get(i) == '\n') {
+					String line = new String(in.array(), 0, i, StandardCharsets.US_ASCII);
+					in.limit(in.position()).position(i + 1);
+					in.compact();
+					return line;
+				}
+			}
+			if (!in.hasRemaining() || channel.read(in) < 0) {
+				throw new IOException("server closed the session or sent too long a line");
+			}
+		}
+	}
+
+	/**
+	 * The latencies of a run
+	 */
+	public static final class Result {
+		private final long[] latencies;
+
+		Result(long[] latencies) {
+			this.latencies = latencies;
+			Arrays.sort(latencies);
+		}
+
+		/**
+		 * @return the number of moves played
+		 */
+		public int getMoves() {
+			return latencies.length;
+		}
+
+		/**
+		 * @param p the percentile, from 0 to 100
+		 * @return the latency in nanoseconds that p percent of the moves were
+		 *         answered within
+		 */
+		public long percentile(double p) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(p / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(latencies.length - 1, rank))];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d moves, p50 %.1fus, p99 %.1fus, max %.1fus", getMoves(), percentile(50) / 1e3,
+					percentile(99) / 1e3, percentile(100) / 1e3);
+		}
+	}
+
+	/**
+	 * @param args the server's port, 4444 by default, the number of sessions,
+	 *             1000 by default, the number of moves per session, 100 by
+	 *             default, and the number of client threads, 4 by default
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 4444;
+		int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int moves = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		GameLoadGenerator load = new GameLoadGenerator(new InetSocketAddress("localhost", port), sessions, moves,
+				threads, System.nanoTime());
+		System.out.println(load.run());
+	}
+
+}
@@ -0,0 +1,336 @@
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+/**
+ * A TCP server hosting one {@link Game} per connection, so many players can
+ * play at once where {@link TestBlockly} drives a single game from stdin. Every
+ * connection gets a new random board and sends one command per line:
+ *
+ * - swap a b, to swap blocks a and b
+ *
+ * - rotate a, to rotate block a
+ *
+ * - smash a, to smash block a
+ *
+ * - score, to do nothing
+ *
+ * - quit, to close the connection
+ *
+ * Each command but quit is answered with a line holding the score after it, or
+ * with a line starting with ERR if the command could not be read. As in the
+ * interactive loop, moves on blocks that do not exist do nothing.
+ *
+ * All connections are served by one thread, on a selector, so the games need
+ * no locking and a session costs its game and two small buffers, not a thread.
+ * A session whose client sends commands faster than it reads the replies is
+ * not read from until it has taken the replies it is owed, so its buffers stay
+ * small. A session whose command fails in any way is closed without affecting
+ * the others.
+ * Run it as <code>java GameServer [port [maxDepth]]</code>.
+ *
+ * @author clairewalker
+ *
+ */
+public class GameServer implements Runnable, Closeable {
+	// the longest command line accepted
+	private static final int LINE_LIMIT = 256;
+
+	private final int maxDepth;
+	private final Color target;
+	private final SplittableRandom random;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private volatile int sessions;
+	private volatile boolean running;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the server socket. Nothing is served until {@link #run()} is called
+	 *
+	 * @param address  the address to listen on, port 0 for any free port
+	 * @param maxDepth the max depth of the sessions' boards
+	 * @param target   the target color of the sessions' boards
+	 * @param seed     the seed the sessions' boards are drawn from
+	 * @throws IOException if the socket cannot be opened
+	 */
+	public GameServer(InetSocketAddress address, int maxDepth, Color target, long seed) throws IOException {
+		this.maxDepth = maxDepth;
+		this.target = target;
+		this.random = new SplittableRandom(seed);
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		try {
+			server.bind(address, 1024);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			server.close();
+			selector.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return the number of open sessions
+	 */
+	public int sessionCount() {
+		return sessions;
+	}
+
+	/**
+	 * Serves connections until the server is closed
+	 */
+	@Override
+	public void run() {
+		running = true;
+		try {
+			while (!closed) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Session session = (Session) key.attachment();
+					try {
+						if (key.isReadable()) {
+							session.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							session.write();
+						}
+					} catch (IOException | RuntimeException e) {
+						// the client went away or its command broke its game, so only its
+						// session ends
+						session.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			// the selector failed, so stop serving
+		} finally {
+			running = false;
+			closeAll();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Session session = new Session(channel, new Game(maxDepth, target, random.split()));
+			session.key = channel.register(selector, SelectionKey.OP_READ, session);
+			sessions++;
+		}
+	}
+
+	/**
+	 * Stops serving and closes every session. If {@link #run()} is serving, it
+	 * returns once it has closed them
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		if (!running) {
+			closeAll();
+		}
+	}
+
+	private synchronized void closeAll() {
+		if (!selector.isOpen()) {
+			return;
+		}
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Session) {
+				((Session) key.attachment()).close();
+			}
+		}
+		try {
+			selector.close();
+			server.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+	}
+
+	/**
+	 * Runs the command on the game
+	 *
+	 * @param game    the session's game
+	 * @param command the command line, without its line ending
+	 * @return the reply line, without its line ending, or null to close the
+	 *         session
+	 */
+	static String execute(Game game, String command) {
+		String[] words = command.trim().split("\\s+");
+		try {
+			switch (words[0]) {
+			case "swap":
+				if (words.length != 3) {
+					break;
+				}
+				game.swap(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+				return Integer.toString(game.perimeter_score());
+			case "rotate":
+			case "smash":
+				if (words.length != 2) {
+					break;
+				}
+				IBlock b = game.getBlock(Integer.parseInt(words[1]));
+				// if there is no such block, do nothing
+				if (b != null && words[0].equals("rotate")) {
+					b.rotate();
+				} else if (b != null) {
+					b.smash(game.max_depth());
+				}
+				return Integer.toString(game.perimeter_score());
+			case "score":
+				if (words.length != 1) {
+					break;
+				}
+				return Integer.toString(game.perimeter_score());
+			case "quit":
+				return null;
+			default:
+				break;
+			}
+		} catch (NumberFormatException e) {
+			return "ERR bad block id in " + command.trim();
+		}
+		return "ERR unknown command " + command.trim();
+	}
+
+	/**
+	 * A connection and its game
+	 */
+	private final class Session {
+		private final SocketChannel channel;
+		private final Game game;
+		private final ByteBuffer in = ByteBuffer.allocate(LINE_LIMIT);
+		private ByteBuffer out = ByteBuffer.allocate(LINE_LIMIT);
+		private SelectionKey key;
+		private boolean closing;
+
+		Session(SocketChannel channel, Game game) {
+			this.channel = channel;
+			this.game = game;
+		}
+
+		/**
+		 * Reads what has arrived and answers every whole line in it
+		 */
+		void read() throws IOException {
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+			byte[] bytes = in.array();
+			int start = 0;
+			for (int i = 0; i < in.position() && !closing; i++) {
+				if (bytes[i] != '\n') {
+					continue;
+				}
+				String reply = execute(game, new String(bytes, start, i - start, StandardCharsets.US_ASCII));
+				start = i + 1;
+				if (reply == null) {
+					closing = true;
+				} else {
+					reply(reply);
+				}
+			}
+			// keep the part of a line that has not fully arrived
+			in.limit(in.position()).position(start);
+			in.compact();
+			if (!in.hasRemaining() && !closing) {
+				reply("ERR line too long");
+				closing = true;
+			}
+			write();
+		}
+
+		private void reply(String line) {
+			int length = line.length() + 1;
+			if (out.remaining() < length) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + length));
+				out.flip();
+				grown.put(out);
+				out = grown;
+			}
+			for (int i = 0; i < line.length(); i++) {
+				out.put((byte) line.charAt(i));
+			}
+			out.put((byte) '\n');
+		}
+
+		/**
+		 * Writes as much of the pending replies as the socket takes, and waits to
+		 * write the rest when it takes more. Until then no more commands are read,
+		 * so out never holds more than the replies to one buffer of commands
+		 */
+		void write() throws IOException {
+			out.flip();
+			channel.write(out);
+			boolean pending = out.hasRemaining();
+			out.compact();
+			if (pending) {
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else if (closing) {
+				close();
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		void close() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			sessions--;
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+
+	/**
+	 * @param args the port, 4444 by default, and the max depth of the boards, 3
+	 *             by default
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 4444;
+		int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		GameServer server = new GameServer(new InetSocketAddress(port), maxDepth, Color.BLUE,
+				System.nanoTime());
+		System.out.println("Serving depth " + maxDepth + " games on port " + server.getPort());
+		server.run();
+	}
+
+}
@@ -1,4 +1,8 @@
 import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 
 /**
  * the IGame class creates the blocky board 
@@ -90,5 +94,96 @@ public interface IGame {
      * @param root the root of this blockly board
      */
     public void setRoot(IBlock root);
-    
+
+
+    /**
+     * Finds the leaf covering a unit cell of the board, the block flatten()
+     * puts at [y][x], descending from the root by the blocks' bounds in
+     * O(depth) rather than flattening the whole board
+     * 
+     * @param x the column of the cell
+     * @param y the row of the cell
+     * @return the leaf covering the cell, or null if the cell is off the board
+     */
+    public default IBlock leafAt(int x, int y)
+    {
+        long boardSize = 1L << max_depth();
+        IBlock b = getRoot();
+        if (b == null || x < 0 || y < 0 || x >= boardSize || y >= boardSize)
+        {
+            return null;
+        }
+        // block points are in the root's units, which need not be cells
+        long extent = Block.x1(b) - Block.x0(b);
+        while (!b.isleaf())
+        {
+            // the top left child ends where the right and bottom halves start
+            IBlock topLeft = b.getTopLeftTree();
+            long midX = Block.x1(topLeft) * boardSize / extent;
+            long midY = Block.y1(topLeft) * boardSize / extent;
+            if (y < midY)
+            {
+                b = x < midX ? topLeft : b.getTopRightTree();
+            }
+            else
+            {
+                b = x < midX ? b.getBotLeftTree() : b.getBotRightTree();
+            }
+        }
+        return b;
+    }
+
+
+    /**
+     * Finds every leaf covering at least one cell of a rectangle of the board,
+     * descending only into blocks that overlap it, in O(output + depth)
+     * rather than flattening the whole board
+     * 
+     * @param x the column of the rectangle's left edge
+     * @param y the row of the rectangle's top edge
+     * @param width the number of columns in the rectangle
+     * @param height the number of rows in the rectangle
+     * @return the leaves in pre-order, clockwise from the top left, empty if
+     *         the rectangle is off the board or empty
+     */
+    public default List<IBlock> leavesIn(int x, int y, int width, int height)
+    {
+        List<IBlock> leaves = new ArrayList<IBlock>();
+        IBlock root = getRoot();
+        if (root == null || width <= 0 || height <= 0)
+        {
+            return leaves;
+        }
+        long boardSize = 1L << max_depth();
+        long extent = Block.x1(root) - Block.x0(root);
+        long x2 = (long)x + width;
+        long y2 = (long)y + height;
+
+        Deque<IBlock> stack = new ArrayDeque<IBlock>();
+        stack.push(root);
+        while (!stack.isEmpty())
+        {
+            IBlock b = stack.pop();
+            // skip blocks whose cells miss the rectangle
+            if (Block.x1(b) * boardSize / extent <= x
+                || Block.x0(b) * boardSize / extent >= x2
+                || Block.y1(b) * boardSize / extent <= y
+                || Block.y0(b) * boardSize / extent >= y2)
+            {
+                continue;
+            }
+            if (b.isleaf())
+            {
+                leaves.add(b);
+                continue;
+            }
+            // pushed in reverse so they come off the stack clockwise
+            stack.push(b.getBotLeftTree());
+            stack.push(b.getBotRightTree());
+            stack.push(b.getTopRightTree());
+            stack.push(b.getTopLeftTree());
+        }
+        return leaves;
+    }
+
 }
@@ -0,0 +1,478 @@
+import java.awt.Color;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A journal of the moves made on a {@link Game}, for undoing and redoing them.
+ *
+ * Each move is one entry of a ring buffer: a swap as its two ids, a rotate as
+ * the block's id and how many quarter turns it was rotated by, with repeated
+ * rotates of the same block folded into one entry, and a smash as the block's
+ * id, its color before the smash and the colors of its four new children,
+ * packed as palette indices unless one of them is outside the palette. A
+ * color change is an entry too, as the leaf's id and its colors before and
+ * after. Every entry is undone by a move of its own, a swap by swapping back, a
+ * rotate by rotating the rest of the way round, a smash by dropping the
+ * children again and a color change by changing the color back, so nothing is
+ * ever copied to undo a move.
+ *
+ * Once the ring is full the oldest entries are overwritten, so memory stays
+ * bounded however many moves are made. To reach further back than the ring, the
+ * journal takes a checkpoint, a snapshot of the whole board, every so many
+ * moves and keeps the most recent few. {@link #rewindTo(long)} goes to a
+ * position in the journal by undoing or redoing moves when the ring covers it,
+ * and by restoring the checkpoint taken there when it does not.
+ *
+ * Positions count every move recorded since the journal was attached or last
+ * cleared, minus the ones undone.
+ *
+ * @author clairewalker
+ *
+ */
+public class MoveJournal {
+	private static final byte SWAP = 0;
+	private static final byte ROTATE = 1;
+	private static final byte SMASH = 2;
+	private static final byte RECOLOR = 3;
+	// the args of a smash whose new children's colors are kept in newColors
+	private static final int ESCAPED = -1;
+
+	// the ring of entries. the entry for position p is at index p % capacity
+	private final int capacity;
+	private final byte[] types;
+	// the id of the moved block, the first one for a swap
+	private final int[] ids;
+	// the second id of a swap, the number of quarter turns of a rotate, or the
+	// palette indices of a smash's new children, four bits each clockwise from the
+	// top left one
+	private final int[] args;
+	// the color a smashed or recolored block had before the move
+	private final Color[] oldColors;
+	// the colors of a smash's new children, clockwise from the top left one, when
+	// one of them is not in the palette and they can't be packed into args, or the
+	// new color of a recolored leaf
+	private final Color[][] newColors;
+	// the positions of the oldest entry still in the ring, of the next entry to
+	// redo and of the end of the recorded moves
+	private long oldest;
+	private long cursor;
+	private long end;
+
+	private final int checkpointInterval;
+	private final int maxCheckpoints;
+	// the most recent checkpoints, oldest first
+	private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<Checkpoint>();
+	private int sinceCheckpoint;
+
+	private Game game;
+	// set while the journal makes moves of its own, so they are not recorded
+	private boolean replaying;
+
+	/**
+	 * @param capacity           the number of moves kept for undo
+	 * @param checkpointInterval the number of moves recorded between checkpoints
+	 * @param maxCheckpoints     the number of most recent checkpoints kept
+	 */
+	public MoveJournal(int capacity, int checkpointInterval, int maxCheckpoints) {
+		if (capacity < 1 || checkpointInterval < 1 || maxCheckpoints < 0) {
+			throw new IllegalArgumentException("capacity " + capacity + " and checkpoint interval "
+					+ checkpointInterval + " must be positive, max checkpoints " + maxCheckpoints
+					+ " must not be negative");
+		}
+		this.capacity = capacity;
+		this.types = new byte[capacity];
+		this.ids = new int[capacity];
+		this.args = new int[capacity];
+		this.oldColors = new Color[capacity];
+		this.newColors = new Color[capacity][];
+		this.checkpointInterval = checkpointInterval;
+		this.maxCheckpoints = maxCheckpoints;
+	}
+
+	/**
+	 * Starts recording the moves of game, from an empty journal
+	 */
+	void attach(Game g) {
+		this.game = g;
+		clear();
+	}
+
+	/**
+	 * Forgets every recorded move and checkpoint, for a new board. The current
+	 * board becomes position 0.
+	 */
+	public void clear() {
+		oldest = 0;
+		cursor = 0;
+		end = 0;
+		checkpoints.clear();
+		sinceCheckpoint = 0;
+		for (int i = 0; i < capacity; i++) {
+			oldColors[i] = null;
+			newColors[i] = null;
+		}
+	}
+
+	/**
+	 * @return the current position, the number of moves made and not undone
+	 */
+	public long position() {
+		return cursor;
+	}
+
+	/**
+	 * @return the earliest position undo can go back to
+	 */
+	public long oldestPosition() {
+		return oldest;
+	}
+
+	/**
+	 * @return the latest position redo can go forward to
+	 */
+	public long latestPosition() {
+		return end;
+	}
+
+	/**
+	 * @return the positions of the checkpoints kept, oldest first
+	 */
+	public List<Long> checkpointPositions() {
+		List<Long> positions = new ArrayList<Long>();
+		for (Checkpoint c : checkpoints) {
+			positions.add(c.position);
+		}
+		return positions;
+	}
+
+	/**
+	 * Undoes the move before the current position
+	 *
+	 * @return true if a move was undone, false if the ring holds none
+	 */
+	public boolean undo() {
+		if (cursor == oldest) {
+			return false;
+		}
+		cursor--;
+		int slot = slot(cursor);
+		replaying = true;
+		try {
+			switch (types[slot]) {
+			case SWAP:
+				// a swap of the same two ids puts both blocks back
+				game.swap(ids[slot], args[slot]);
+				break;
+			case ROTATE:
+				rotate(ids[slot], 4 - args[slot]);
+				break;
+			case RECOLOR:
+				game.getBlock(ids[slot]).setColor(oldColors[slot]);
+				break;
+			default:
+				((Block) game.getBlock(ids[slot])).unsmash(oldColors[slot]);
+				break;
+			}
+		} finally {
+			replaying = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Redoes the move after the current position
+	 *
+	 * @return true if a move was redone, false if there is none to redo
+	 */
+	public boolean redo() {
+		if (cursor == end) {
+			return false;
+		}
+		int slot = slot(cursor);
+		cursor++;
+		replaying = true;
+		try {
+			switch (types[slot]) {
+			case SWAP:
+				game.swap(ids[slot], args[slot]);
+				break;
+			case ROTATE:
+				rotate(ids[slot], args[slot]);
+				break;
+			case RECOLOR:
+				game.getBlock(ids[slot]).setColor(newColors[slot][0]);
+				break;
+			default:
+				Block b = (Block) game.getBlock(ids[slot]);
+				if (args[slot] == ESCAPED) {
+					Color[] colors = newColors[slot];
+					b.smash(game.max_depth(), colors[0], colors[1], colors[2], colors[3]);
+					break;
+				}
+				int colors = args[slot];
+				b.smash(game.max_depth(), IBlock.COLORS[colors & 0xF], IBlock.COLORS[(colors >> 4) & 0xF],
+						IBlock.COLORS[(colors >> 8) & 0xF], IBlock.COLORS[(colors >> 12) & 0xF]);
+				break;
+			}
+		} finally {
+			replaying = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Brings the board back, or forward, to the given position. Within the ring
+	 * this undoes or redoes one move at a time. Outside it, the position can only
+	 * be reached if a checkpoint was taken there, by restoring it.
+	 *
+	 * @param position the position to go to
+	 * @return true if the board is now at position, false if it cannot be reached,
+	 *         in which case the board is left as it was
+	 */
+	public boolean rewindTo(long position) {
+		if (position >= oldest && position <= end) {
+			while (cursor > position) {
+				undo();
+			}
+			while (cursor < position) {
+				redo();
+			}
+			return true;
+		}
+
+		// further back, only the board at a checkpoint is known
+		for (Checkpoint c : checkpoints) {
+			if (c.position == position) {
+				restore(c);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records a swap of the blocks with ids x and y
+	 */
+	void recordSwap(int x, int y) {
+		if (replaying) {
+			return;
+		}
+		int slot = append(SWAP, x);
+		args[slot] = y;
+		afterRecord();
+	}
+
+	/**
+	 * Records a quarter turn of the block with the given id, folding it into the
+	 * last entry when that rotated the same block
+	 */
+	void recordRotate(int id) {
+		if (replaying) {
+			return;
+		}
+		// drop any moves that were undone, they can no longer be redone
+		truncate();
+		if (cursor > oldest && (checkpoints.isEmpty() || checkpoints.peekLast().position != cursor)) {
+			int last = slot(cursor - 1);
+			if (types[last] == ROTATE && ids[last] == id) {
+				args[last] = (args[last] + 1) % 4;
+				if (args[last] == 0) {
+					// four quarter turns put the block back as it was
+					cursor--;
+					end--;
+				}
+				return;
+			}
+		}
+		int slot = append(ROTATE, id);
+		args[slot] = 1;
+		afterRecord();
+	}
+
+	/**
+	 * Records a smash of the block with the given id, which was of oldColor, into
+	 * the four children b has now. Children's colors that are all in the palette
+	 * are packed into the entry, any others are kept as they are
+	 */
+	void recordSmash(int id, Color oldColor, Block b) {
+		if (replaying) {
+			return;
+		}
+		int slot = append(SMASH, id);
+		Color[] colors = { b.getTopLeftTree().getColor(), b.getTopRightTree().getColor(),
+				b.getBotRightTree().getColor(), b.getBotLeftTree().getColor() };
+		int packed = 0;
+		for (int i = 0; i < 4 && packed != ESCAPED; i++) {
+			int index = Block.colorIndex(colors[i]);
+			packed = index < 0 ? ESCAPED : packed | index << (4 * i);
+		}
+		args[slot] = packed;
+		if (packed == ESCAPED) {
+			newColors[slot] = colors;
+		}
+		oldColors[slot] = oldColor;
+		afterRecord();
+	}
+
+	/**
+	 * Records that the leaf with the given id went from oldColor to newColor
+	 */
+	void recordRecolor(int id, Color oldColor, Color newColor) {
+		if (replaying) {
+			return;
+		}
+		int slot = append(RECOLOR, id);
+		oldColors[slot] = oldColor;
+		newColors[slot] = new Color[] { newColor };
+		afterRecord();
+	}
+
+	/**
+	 * Rotates the block with the given id by the given number of quarter turns
+	 */
+	private void rotate(int id, int quarterTurns) {
+		IBlock b = game.getBlock(id);
+		for (int i = 0; i < quarterTurns; i++) {
+			b.rotate();
+		}
+	}
+
+	/**
+	 * Drops the moves after the current position and any checkpoints among them
+	 */
+	private void truncate() {
+		end = cursor;
+		while (!checkpoints.isEmpty() && checkpoints.peekLast().position > cursor) {
+			checkpoints.pollLast();
+		}
+	}
+
+	/**
+	 * Adds an entry at the current position, overwriting the oldest one if the
+	 * ring is full
+	 *
+	 * @return the slot of the new entry
+	 */
+	private int append(byte type, int id) {
+		truncate();
+		int slot = slot(cursor);
+		types[slot] = type;
+		ids[slot] = id;
+		oldColors[slot] = null;
+		newColors[slot] = null;
+		cursor++;
+		end = cursor;
+		if (end - oldest > capacity) {
+			oldest++;
+		}
+		return slot;
+	}
+
+	/**
+	 * Takes a checkpoint if enough moves have been recorded since the last one
+	 */
+	private void afterRecord() {
+		if (++sinceCheckpoint < checkpointInterval || maxCheckpoints == 0) {
+			return;
+		}
+		sinceCheckpoint = 0;
+		if (checkpoints.size() == maxCheckpoints) {
+			checkpoints.pollFirst();
+		}
+		checkpoints.addLast(new Checkpoint(cursor, game.getRoot()));
+	}
+
+	/**
+	 * Puts the board of checkpoint c in place of the current one
+	 */
+	private void restore(Checkpoint c) {
+		IBlock root = game.getRoot();
+		Block restored = new Block(new Point(root.getTopLeft().getX(), root.getTopLeft().getY()),
+				new Point(root.getBotRight().getX(), root.getBotRight().getY()), 0, null);
+		build(restored, c, 0, c.colors());
+		game.replaceRoot(restored);
+
+		// the moves in the ring do not lead on from the checkpoint, which is older
+		// than them or was undone past them
+		cursor = c.position;
+		oldest = cursor;
+		end = cursor;
+		sinceCheckpoint = 0;
+	}
+
+	/**
+	 * Rebuilds the subtree under b from checkpoint c
+	 *
+	 * @param index  the pre-order index of b in c
+	 * @param colors the colors of c's leaves from b's first one on
+	 * @return the pre-order index of the block after b's subtree
+	 */
+	private int build(Block b, Checkpoint c, int index, Iterator<Color> colors) {
+		if (!c.isSplit(index)) {
+			b.setColor(colors.next());
+			return index + 1;
+		}
+		// the children get their colors as they are built in turn
+		b.smash(Integer.MAX_VALUE, null, null, null, null);
+		index = build((Block) b.getTopLeftTree(), c, index + 1, colors);
+		index = build((Block) b.getTopRightTree(), c, index, colors);
+		index = build((Block) b.getBotRightTree(), c, index, colors);
+		return build((Block) b.getBotLeftTree(), c, index, colors);
+	}
+
+	/**
+	 * @return the index in the ring of the entry for position p
+	 */
+	private int slot(long p) {
+		return (int) (p % capacity);
+	}
+
+	/**
+	 * A snapshot of a board: whether every block is split, in pre-order clockwise
+	 * from the top left child, and the color of every leaf in the same order. A
+	 * leaf may have no color, so the shape is not read from the colors
+	 */
+	private static class Checkpoint {
+		final long position;
+		private final BitSet splits = new BitSet();
+		private final ArrayList<Color> colors = new ArrayList<Color>();
+		private int blocks;
+
+		Checkpoint(long position, IBlock root) {
+			this.position = position;
+			add(root);
+			colors.trimToSize();
+		}
+
+		private void add(IBlock b) {
+			if (b.isleaf()) {
+				blocks++;
+				colors.add(b.getColor());
+				return;
+			}
+			splits.set(blocks++);
+			add(b.getTopLeftTree());
+			add(b.getTopRightTree());
+			add(b.getBotRightTree());
+			add(b.getBotLeftTree());
+		}
+
+		/**
+		 * @return whether the block at the given pre-order index is split
+		 */
+		boolean isSplit(int index) {
+			return splits.get(index);
+		}
+
+		/**
+		 * @return the colors of the leaves in pre-order
+		 */
+		Iterator<Color> colors() {
+			return colors.iterator();
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Replays move logs on a game without the interactive loop of
+ * {@link TestBlockly}. A log is what a player types into that loop: whitespace
+ * separated integers, each move an operation id followed by its block ids,
+ *
+ * - 1 a b, to swap blocks a and b
+ *
+ * - 2 a, to rotate block a
+ *
+ * - 3 a, to smash block a
+ *
+ * Like the loop, any other operation id is a move that does nothing, and moves
+ * on blocks that do not exist do nothing. The score after every move can be
+ * handed to a consumer as the move is applied. Any IGame can be replayed on,
+ * including a {@link PersistentGame}.
+ *
+ * Logs are read through a channel into one reused buffer and parsed a byte at a
+ * time, so a log of any size is replayed in constant memory. A move cut short
+ * by the end of the log is not applied.
+ *
+ * @author clairewalker
+ *
+ */
+public class MoveReplay {
+	/**
+	 * the operation id of a swap, followed by the ids of the two blocks
+	 */
+	public static final int SWAP = 1;
+	/**
+	 * the operation id of a rotate, followed by the id of the block
+	 */
+	public static final int ROTATE = 2;
+	/**
+	 * the operation id of a smash, followed by the id of the block
+	 */
+	public static final int SMASH = 3;
+	private static final int BUFFER_SIZE = 1 << 16;
+	// numbers past this are no block id and no operation id anyway
+	private static final long MAX_VALUE = Integer.MAX_VALUE;
+
+	private final IGame game;
+	private IntConsumer scores;
+
+	// the parser's state, kept between buffers since a move or a number can be
+	// split across two of them
+	private final int[] move = new int[3];
+	private int have;
+	private long value;
+	private boolean inNumber;
+	private boolean negative;
+	private long moves;
+
+	/**
+	 * @param game the game to apply the moves to
+	 */
+	public MoveReplay(IGame game) {
+		this.game = game;
+	}
+
+	/**
+	 * Replays the log in a file
+	 *
+	 * @param file   the log
+	 * @param scores given the score after every move, or null
+	 * @return the number of moves applied
+	 * @throws IOException              if the file cannot be read
+	 * @throws IllegalArgumentException if the log holds something other than
+	 *                                  integers
+	 */
+	public long replay(Path file, IntConsumer scores) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			return replay(in, scores);
+		}
+	}
+
+	/**
+	 * Replays the log read from a channel, until the channel ends
+	 *
+	 * @param in     the log
+	 * @param scores given the score after every move, or null
+	 * @return the number of moves applied
+	 * @throws IOException              if the channel cannot be read
+	 * @throws IllegalArgumentException if the log holds something other than
+	 *                                  integers
+	 */
+	public long replay(ReadableByteChannel in, IntConsumer scores) throws IOException {
+		this.scores = scores;
+		have = 0;
+		value = 0;
+		inNumber = false;
+		negative = false;
+		moves = 0;
+
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] bytes = buf.array();
+		long offset = 0;
+		while (in.read(buf) >= 0) {
+			int n = buf.position();
+			for (int i = 0; i < n; i++) {
+				int c = bytes[i];
+				if (c >= '0' && c <= '9') {
+					value = Math.min(value * 10 + (c - '0'), MAX_VALUE);
+					inNumber = true;
+				} else if (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f') {
+					if (inNumber) {
+						endNumber();
+					} else if (negative) {
+						throw new IllegalArgumentException("lone - at byte " + (offset + i));
+					}
+				} else if (c == '-' && !inNumber && !negative) {
+					negative = true;
+				} else {
+					throw new IllegalArgumentException("unexpected character " + (char) (c & 0xFF) + " at byte "
+							+ (offset + i));
+				}
+			}
+			offset += n;
+			buf.clear();
+		}
+		if (inNumber) {
+			endNumber();
+		} else if (negative) {
+			throw new IllegalArgumentException("lone - at byte " + offset);
+		}
+		return moves;
+	}
+
+	/**
+	 * Adds the number just read to the move, and applies the move once it has all
+	 * its block ids
+	 */
+	private void endNumber() {
+		move[have++] = (int) (negative ? -value : value);
+		value = 0;
+		inNumber = false;
+		negative = false;
+
+		int op = move[0];
+		if (have < (op == SWAP ? 3 : op == ROTATE || op == SMASH ? 2 : 1)) {
+			return;
+		}
+		have = 0;
+		apply(op, move[1], move[2]);
+		moves++;
+		if (scores != null) {
+			scores.accept(game.perimeter_score());
+		}
+	}
+
+	/**
+	 * Applies one move as the interactive loop would
+	 *
+	 * @param op the operation id
+	 * @param a  the first block id
+	 * @param b  the second block id, for a swap
+	 */
+	void apply(int op, int a, int b) {
+		switch (op) {
+		case SWAP:
+			game.swap(a, b);
+			break;
+		case ROTATE:
+		case SMASH:
+			IBlock block = game.getBlock(a);
+			// if there is no such block, do nothing
+			if (block == null) {
+				break;
+			}
+			if (op == ROTATE) {
+				block.rotate();
+			} else {
+				block.smash(game.max_depth());
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A view of one block of a {@link PersistentGame}. It holds the
+ * block's node and where the node sits in the tree it was reached from: its
+ * path from the root, two bits a level, its depth and its top left point and
+ * width. The node never changes, so a view keeps showing the tree it was taken
+ * from after the game has moved on. Two views of the same node at the same
+ * place are equal.
+ *
+ * rotate, smash and setColor are made through the game, which builds a new
+ * tree. The view itself keeps showing the old one, so it can't be used for
+ * another move; get a fresh view from the game instead.
+ *
+ * @author clairewalker
+ *
+ */
+public class PersistentBlock implements IBlock {
+	private final PersistentGame game;
+	private final PersistentGame.Node node;
+	private final int depth;
+	private final long path;
+	private final int x;
+	private final int y;
+	private final int size;
+
+	/**
+	 * @param game  the game the block was reached from
+	 * @param node  the block's node
+	 * @param depth the block's depth
+	 * @param path  the child slots from the root down to the block, two bits a
+	 *              level starting with the lowest
+	 * @param x     the x coordinate of the block's top left point
+	 * @param y     the y coordinate of the block's top left point
+	 * @param size  the block's width
+	 */
+	PersistentBlock(PersistentGame game, PersistentGame.Node node, int depth, long path, int x, int y, int size) {
+		this.game = game;
+		this.node = node;
+		this.depth = depth;
+		this.path = path;
+		this.x = x;
+		this.y = y;
+		this.size = size;
+	}
+
+	@Override
+	public int depth() {
+		return depth;
+	}
+
+	@Override
+	public void smash(int maxDepth) {
+		if (depth < maxDepth) {
+			game.smash(this);
+		}
+	}
+
+	@Override
+	public List<IBlock> children() {
+		List<IBlock> children = new ArrayList<IBlock>();
+		// if this block is a leaf, return the empty list
+		if (isleaf()) {
+			return children;
+		}
+		// else, add the children in clockwise order beginning with the top left one
+		for (int slot = 0; slot < 4; slot++) {
+			children.add(child(slot));
+		}
+		return children;
+	}
+
+	@Override
+	public void rotate() {
+		game.rotate(this);
+	}
+
+	@Override
+	public Color getColor() {
+		return node.color;
+	}
+
+	@Override
+	public void setColor(Color c) {
+		game.setColor(this, c);
+	}
+
+	@Override
+	public Point getTopLeft() {
+		return new Point(x, y);
+	}
+
+	@Override
+	public Point getBotRight() {
+		return new Point(x + size, y + size);
+	}
+
+	@Override
+	public boolean isleaf() {
+		return node.isLeaf();
+	}
+
+	@Override
+	public IBlock getTopLeftTree() {
+		return child(0);
+	}
+
+	@Override
+	public IBlock getTopRightTree() {
+		return child(1);
+	}
+
+	@Override
+	public IBlock getBotLeftTree() {
+		return child(3);
+	}
+
+	@Override
+	public IBlock getBotRightTree() {
+		return child(2);
+	}
+
+	/**
+	 * @param slot 0 to 3, clockwise from the top left child
+	 * @return a view of the child in slot, or null if this block is a leaf
+	 */
+	PersistentBlock child(int slot) {
+		if (isleaf()) {
+			return null;
+		}
+		int half = size / 2;
+		int childX = slot == 1 || slot == 2 ? x + half : x;
+		int childY = slot == 2 || slot == 3 ? y + half : y;
+		return new PersistentBlock(game, node.kids[slot], depth + 1, path | (long) slot << (2 * depth), childX,
+				childY, half);
+	}
+
+	/**
+	 * @return the game this block was reached from
+	 */
+	PersistentGame getGame() {
+		return game;
+	}
+
+	/**
+	 * @return the block's node
+	 */
+	PersistentGame.Node getNode() {
+		return node;
+	}
+
+	/**
+	 * @return the child slots from the root down to this block
+	 */
+	long getPath() {
+		return path;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PersistentBlock)) {
+			return false;
+		}
+		PersistentBlock other = (PersistentBlock) o;
+		return other.node == node && other.depth == depth && other.x == x && other.y == y;
+	}
+
+	@Override
+	public int hashCode() {
+		return (System.identityHashCode(node) * 31 + x) * 31 + y;
+	}
+
+}
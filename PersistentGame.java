@@ -0,0 +1,465 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.SplittableRandom;
+
+/**
+ * An IGame whose quadtree is persistent: its nodes are never changed once
+ * built. A move builds new nodes along the path from the root down to the moved
+ * blocks and shares every other subtree with the tree before the move, so it
+ * costs O(depth), and {@link #branch()} gives a second game on the same tree
+ * for O(1). Search code can branch on every candidate move without copying a
+ * board.
+ *
+ * A node holds its color or its four children, the number of blocks under it
+ * and how many cells of the target color lie along each of its four edges, so
+ * perimeter_score is read off the root. It does not know where it is; that is
+ * worked out on the way down by the {@link PersistentBlock} views callers reach
+ * blocks through, which is what lets a rotated or swapped subtree be shared
+ * as is. Moves go through {@link #rotate(IBlock)}, {@link #swap(IBlock, IBlock)},
+ * {@link #smash(IBlock)} and {@link #setColor(IBlock, Color)}, which take a
+ * view of the current tree and return the new root. The views' own rotate,
+ * smash and setColor call them.
+ *
+ * A view's path from the root takes two bits a level in a long, so a game can
+ * be at most 32 levels deep.
+ *
+ * Block ids are bfs positions, as in Game, but finding one walks the tree, so
+ * getBlock and swap by id cost O(n).
+ *
+ * @author clairewalker
+ *
+ */
+public class PersistentGame implements IGame {
+	private final int maxDepth;
+	private final Color target;
+	private final int boardSize;
+	private Node root;
+	// the source of every random choice this game makes
+	private final SplittableRandom random;
+
+	/**
+	 * @param max_depth
+	 * @param target
+	 */
+	public PersistentGame(int max_depth, Color target) {
+		this(max_depth, target, new SplittableRandom());
+	}
+
+	/**
+	 * @param max_depth
+	 * @param target
+	 * @param random    the game's random source, used only by this game
+	 */
+	public PersistentGame(int max_depth, Color target, SplittableRandom random) {
+		this(max_depth, target, random, null);
+		random_init();
+	}
+
+	/**
+	 * A game on the given tree, without drawing a random one
+	 *
+	 * @throws IllegalArgumentException if max_depth is more than 32
+	 */
+	private PersistentGame(int max_depth, Color target, SplittableRandom random, Node root) {
+		if (max_depth > 32) {
+			throw new IllegalArgumentException("max depth " + max_depth + " is deeper than the 32 levels a path holds");
+		}
+		this.maxDepth = max_depth;
+		this.target = target;
+		this.random = random;
+		this.root = root;
+
+		// set board size to 2^max depth - this is the number of rows and columns in our
+		// flattened board, and the width of the root
+		boardSize = 1 << maxDepth;
+	}
+
+	/**
+	 * @param game the game whose board to copy
+	 * @return a persistent game on a copy of game's current board, with a random
+	 *         source of its own
+	 */
+	public static PersistentGame of(Game game) {
+		PersistentGame copy = new PersistentGame(game.max_depth(), game.getTarget(), new SplittableRandom(), null);
+		copy.setRoot(game.getRoot());
+		return copy;
+	}
+
+	/**
+	 * @return a game on the current tree, sharing all of it, with a random source
+	 *         split off this game's. moves on either game leave the other's tree
+	 *         as it is
+	 */
+	public PersistentGame branch() {
+		return new PersistentGame(maxDepth, target, random.split(), root);
+	}
+
+	@Override
+	public int max_depth() {
+		return maxDepth;
+	}
+
+	@Override
+	public IBlock random_init() {
+		// the root spans the whole board, we will never have a leaf as root, so always
+		// smash at least once
+		root = leaf(null, 0);
+		root = smashAt(root, 0, 0L, 0);
+
+		// pick uniformly among the leaves until a block one level above max depth has
+		// been smashed, as Game does. leaves are kept as their paths from the root,
+		// two bits a level, and their depths
+		long[] leafPaths = new long[16];
+		int[] leafDepths = new int[16];
+		int leafCount = 0;
+		if (!root.isLeaf()) {
+			for (int slot = 0; slot < 4; slot++) {
+				leafPaths[leafCount] = slot;
+				leafDepths[leafCount++] = 1;
+			}
+		}
+		int depthReached = 1;
+		while (depthReached < maxDepth) {
+			int leafToSelect = random.nextInt(leafCount);
+			long path = leafPaths[leafToSelect];
+			int d = leafDepths[leafToSelect];
+			leafCount--;
+			leafPaths[leafToSelect] = leafPaths[leafCount];
+			leafDepths[leafToSelect] = leafDepths[leafCount];
+			if (d < maxDepth) {
+				root = smashAt(root, 0, path, d);
+				if (leafCount + 4 > leafPaths.length) {
+					leafPaths = Arrays.copyOf(leafPaths, leafPaths.length * 2);
+					leafDepths = Arrays.copyOf(leafDepths, leafDepths.length * 2);
+				}
+				for (int slot = 0; slot < 4; slot++) {
+					leafPaths[leafCount] = path | (long) slot << (2 * d);
+					leafDepths[leafCount++] = d + 1;
+				}
+			}
+			depthReached = d + 1;
+		}
+		return getRoot();
+	}
+
+	@Override
+	public IBlock getBlock(int pos) {
+		// if pos is less than 0, or past the last block, there is no such block
+		if (pos < 0 || root == null || pos >= root.blocks) {
+			return null;
+		}
+		Queue<IBlock> q = new LinkedList<IBlock>();
+		q.add(getRoot());
+		while (true) {
+			IBlock b = q.poll();
+			if (pos-- == 0) {
+				return b;
+			}
+			q.addAll(b.children());
+		}
+	}
+
+	@Override
+	public IBlock getRoot() {
+		return root == null ? null : new PersistentBlock(this, root, 0, 0L, 0, 0, boardSize);
+	}
+
+	/**
+	 * @return the number of blocks in the current tree
+	 */
+	public int blockCount() {
+		return root == null ? 0 : root.blocks;
+	}
+
+	@Override
+	public void swap(int x, int y) {
+		// if the block numbers are equal or less than 1, do nothing
+		if (x < 1 || y < 1 || x == y) {
+			return;
+		}
+		swap(getBlock(x), getBlock(y));
+	}
+
+	/**
+	 * Swaps two blocks of the same depth, and their subtrees, by building new
+	 * nodes along the paths to both. Does nothing if either is not a view of the
+	 * current tree, if they are the same block or the root, or if their depths
+	 * differ.
+	 *
+	 * @param a a block of this game's current tree
+	 * @param b another block of it, at the same depth
+	 * @return the new root
+	 */
+	public IBlock swap(IBlock a, IBlock b) {
+		if (isCurrent(a) && isCurrent(b)) {
+			PersistentBlock pa = (PersistentBlock) a;
+			PersistentBlock pb = (PersistentBlock) b;
+			if (pa.depth() == pb.depth() && pa.depth() > 0 && pa.getPath() != pb.getPath()) {
+				root = swapped(root, pa.getPath(), pb.getPath(), pa.depth());
+			}
+		}
+		return getRoot();
+	}
+
+	/**
+	 * Rotates the children of a block clockwise, by building new nodes along the
+	 * path to it. Does nothing if it is a leaf or not a view of the current tree.
+	 *
+	 * @param b a block of this game's current tree
+	 * @return the new root
+	 */
+	public IBlock rotate(IBlock b) {
+		if (isCurrent(b) && !b.isleaf()) {
+			PersistentBlock pb = (PersistentBlock) b;
+			root = rotated(root, pb.getPath(), pb.depth());
+		}
+		return getRoot();
+	}
+
+	/**
+	 * Smashes a leaf into four leaves of random colors, by building new nodes
+	 * along the path to it. Does nothing if it is not a leaf, is at max depth or
+	 * is not a view of the current tree.
+	 *
+	 * @param b a block of this game's current tree
+	 * @return the new root
+	 */
+	public IBlock smash(IBlock b) {
+		if (isCurrent(b)) {
+			PersistentBlock pb = (PersistentBlock) b;
+			root = smashAt(root, 0, pb.getPath(), pb.depth());
+		}
+		return getRoot();
+	}
+
+	/**
+	 * Gives a leaf the color c, by building new nodes along the path to it. Does
+	 * nothing if it is not a leaf or not a view of the current tree.
+	 *
+	 * @param b a block of this game's current tree
+	 * @param c the new color
+	 * @return the new root
+	 */
+	public IBlock setColor(IBlock b, Color c) {
+		if (isCurrent(b) && b.isleaf()) {
+			PersistentBlock pb = (PersistentBlock) b;
+			root = replaceAt(root, 0, pb.getPath(), pb.depth(), leaf(c, pb.depth()));
+		}
+		return getRoot();
+	}
+
+	@Override
+	public IBlock[][] flatten() {
+		IBlock[][] flatBoard = new IBlock[boardSize][boardSize];
+		if (root != null) {
+			flattenInto((PersistentBlock) getRoot(), flatBoard);
+		}
+		return flatBoard;
+	}
+
+	/**
+	 * Fills the cells covered by each leaf under b with one view of that leaf
+	 */
+	private void flattenInto(PersistentBlock b, IBlock[][] flatBoard) {
+		if (!b.isleaf()) {
+			for (int slot = 0; slot < 4; slot++) {
+				flattenInto(b.child(slot), flatBoard);
+			}
+			return;
+		}
+		int fromCol = Block.x0(b);
+		int toCol = Block.x1(b);
+		for (int row = Block.y0(b); row < Block.y1(b); row++) {
+			Arrays.fill(flatBoard[row], fromCol, toCol, b);
+		}
+	}
+
+	@Override
+	public int perimeter_score() {
+		if (root == null) {
+			return 0;
+		}
+		return root.top + root.right + root.bottom + root.left;
+	}
+
+	@Override
+	public void setRoot(IBlock root) {
+		this.root = root == null ? null : importTree(root, 0);
+	}
+
+	/**
+	 * Builds persistent nodes for the tree under b, a block at depth d
+	 */
+	private Node importTree(IBlock b, int d) {
+		if (b.isleaf()) {
+			return leaf(b.getColor(), d);
+		}
+		return internal(new Node[] { importTree(b.getTopLeftTree(), d + 1), importTree(b.getTopRightTree(), d + 1),
+				importTree(b.getBotRightTree(), d + 1), importTree(b.getBotLeftTree(), d + 1) }, d);
+	}
+
+	/**
+	 * @return true if b is a view of a block of this game's current tree
+	 */
+	private boolean isCurrent(IBlock b) {
+		if (!(b instanceof PersistentBlock) || root == null) {
+			return false;
+		}
+		PersistentBlock pb = (PersistentBlock) b;
+		return pb.getGame() == this && nodeAt(pb.getPath(), pb.depth()) == pb.getNode();
+	}
+
+	/**
+	 * @return the node at the end of path, depth levels down, or null if the tree
+	 *         ends before it
+	 */
+	private Node nodeAt(long path, int depth) {
+		return nodeAt(root, path, depth);
+	}
+
+	/**
+	 * @return the node at the end of path from r, depth levels down, or null if
+	 *         the tree ends before it
+	 */
+	private static Node nodeAt(Node r, long path, int depth) {
+		Node n = r;
+		for (int d = 0; d < depth && n != null; d++) {
+			n = n.isLeaf() ? null : n.kids[(int) (path >>> (2 * d)) & 3];
+		}
+		return n;
+	}
+
+	/**
+	 * @return the root of this game's current tree, or null
+	 */
+	Node rootNode() {
+		return root;
+	}
+
+	/**
+	 * @param r     the root of a tree of this game's nodes
+	 * @param path  the path to an internal block
+	 * @param depth the depth of the block
+	 * @return the root of a tree like r's with the block's children rotated
+	 *         clockwise
+	 */
+	Node rotated(Node r, long path, int depth) {
+		Node[] kids = nodeAt(r, path, depth).kids;
+		// the old bottom left child becomes the top left one, and so on clockwise
+		return replaceAt(r, 0, path, depth, internal(new Node[] { kids[3], kids[0], kids[1], kids[2] }, depth));
+	}
+
+	/**
+	 * @param r     the root of a tree of this game's nodes
+	 * @param pathA the path to a block
+	 * @param pathB the path to another block at the same depth
+	 * @param depth the depth of both blocks
+	 * @return the root of a tree like r's with the two blocks swapped
+	 */
+	Node swapped(Node r, long pathA, long pathB, int depth) {
+		Node a = nodeAt(r, pathA, depth);
+		Node b = nodeAt(r, pathB, depth);
+		return replaceAt(replaceAt(r, 0, pathA, depth, b), 0, pathB, depth, a);
+	}
+
+	/**
+	 * Copies n, a node at depth d, and the nodes under it on the way to path
+	 * with the one at the end of path replaced
+	 *
+	 * @return the copy of n
+	 */
+	private Node replaceAt(Node n, int d, long path, int targetDepth, Node replacement) {
+		if (d == targetDepth) {
+			return replacement;
+		}
+		int slot = (int) (path >>> (2 * d)) & 3;
+		Node[] kids = n.kids.clone();
+		kids[slot] = replaceAt(kids[slot], d + 1, path, targetDepth, replacement);
+		return internal(kids, d);
+	}
+
+	/**
+	 * Copies the nodes on the way to the leaf at the end of path with that leaf
+	 * smashed, or returns n if it cannot be
+	 */
+	private Node smashAt(Node n, int d, long path, int targetDepth) {
+		Node leaf = nodeAt(path, targetDepth);
+		if (leaf == null || !leaf.isLeaf() || targetDepth >= maxDepth) {
+			return n;
+		}
+		// draw the colors in the order Block.smash draws them
+		Node topLeft = leaf(IBlock.COLORS[random.nextInt(IBlock.COLORS.length)], targetDepth + 1);
+		Node botLeft = leaf(IBlock.COLORS[random.nextInt(IBlock.COLORS.length)], targetDepth + 1);
+		Node topRight = leaf(IBlock.COLORS[random.nextInt(IBlock.COLORS.length)], targetDepth + 1);
+		Node botRight = leaf(IBlock.COLORS[random.nextInt(IBlock.COLORS.length)], targetDepth + 1);
+		Node smashed = internal(new Node[] { topLeft, topRight, botRight, botLeft }, targetDepth);
+		return replaceAt(n, d, path, targetDepth, smashed);
+	}
+
+	/**
+	 * @return a leaf of color c at depth d
+	 */
+	private Node leaf(Color c, int d) {
+		int edge = target.equals(c) ? boardSize >> d : 0;
+		int colorIndex = c == null ? IBlock.COLORS.length : Block.colorIndex(c);
+		// colors outside the palette all hash alike, as do their boards
+		return new Node(c, null, 1, edge, edge, edge, edge, mix(colorIndex + 1));
+	}
+
+	/**
+	 * @return a node at depth d with the given children, clockwise from the top
+	 *         left one
+	 */
+	private Node internal(Node[] kids, int d) {
+		return new Node(null, kids, 1 + kids[0].blocks + kids[1].blocks + kids[2].blocks + kids[3].blocks,
+				kids[0].top + kids[1].top, kids[1].right + kids[2].right, kids[2].bottom + kids[3].bottom,
+				kids[3].left + kids[0].left,
+				mix(kids[0].hash + 31 * (kids[1].hash + 31 * (kids[2].hash + 31 * (kids[3].hash + 31)))));
+	}
+
+	/**
+	 * @return the bits of z mixed, as SplittableRandom mixes its seeds
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	/**
+	 * A node of the tree. Never changed once built, so any number of trees can
+	 * share it.
+	 */
+	static final class Node {
+		final Color color;
+		// the children clockwise from the top left one, or null for a leaf
+		final Node[] kids;
+		// the number of blocks under and including this one
+		final int blocks;
+		// the number of cells of the target color along each edge of this block
+		final int top;
+		final int right;
+		final int bottom;
+		final int left;
+		// a hash of the colors and shape of the subtree, equal for equal subtrees
+		final long hash;
+
+		Node(Color color, Node[] kids, int blocks, int top, int right, int bottom, int left, long hash) {
+			this.color = color;
+			this.kids = kids;
+			this.blocks = blocks;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+			this.left = left;
+			this.hash = hash;
+		}
+
+		boolean isLeaf() {
+			return kids == null;
+		}
+	}
+
+}
@@ -0,0 +1,594 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Searches for the sequence of moves that raises a game's perimeter score the
+ * most, within a number of moves and a time budget.
+ *
+ * The search is a beam search over copies of the board in a
+ * {@link PersistentGame}, where a move copies only the path to the moved
+ * blocks and every node knows its target cells along each of its edges. That
+ * lets a candidate move be scored from the nodes it touches without building
+ * anything, so only the boards kept in the beam are built. Only moves that
+ * involve a block on the edge of the board are tried, as no other move can
+ * change the score. The boards of a search are deduplicated in a transposition
+ * table keyed by the hash of the root node. Once a search with one beam width
+ * finishes, the next one runs with twice the width, until the time is up or
+ * the beam is wide enough to keep every board.
+ *
+ * A smash gives random colors, so it can only be planned as the last move. It
+ * is scored by the score to be expected from its colors.
+ *
+ * @author clairewalker
+ *
+ */
+public class Solver {
+	// the edges a block lies on, as bits
+	private static final int TOP = 1;
+	private static final int RIGHT = 2;
+	private static final int BOTTOM = 4;
+	private static final int LEFT = 8;
+
+	private final Game game;
+	// a copy of the game's board, taken at the start of each solve
+	private PersistentGame board;
+	private final int maxDepth;
+	private final int boardSize;
+	private int beamWidth = 8;
+	private boolean smashAllowed = true;
+	// the transposition table: hashes of boards seen, 0 for an empty slot
+	private final long[] table;
+
+	// the blocks of the board being expanded, in bfs order
+	private PersistentGame.Node[] nodes = new PersistentGame.Node[64];
+	private long[] paths = new long[64];
+	private int[] depths = new int[64];
+	private int[] sizes = new int[64];
+	private int[] edges = new int[64];
+	private int[] xs = new int[64];
+	private int[] ys = new int[64];
+
+	// candidate moves of the beam being expanded
+	private int candidateCount;
+	private int[] candidateFrom = new int[64];
+	private byte[] candidateType = new byte[64];
+	private int[] candidateId = new int[64];
+	private int[] candidateOther = new int[64];
+	private long[] candidatePath = new long[64];
+	private long[] candidateOtherPath = new long[64];
+	private int[] candidateDepth = new int[64];
+	private int[] candidateScore = new int[64];
+	// the candidates' scores and indices, for sorting them by score
+	private long[] candidateOrder = new long[64];
+
+	// statistics of the current solve
+	private long evaluated;
+	private long lookups;
+	private long hits;
+	private State best;
+	private double bestScore;
+	// a smash that does better than best, and the board it is made on
+	private Move bestSmash;
+	private State bestSmashFrom;
+
+	/**
+	 * @param game the game to solve. each solve plans from the board the game has
+	 *             at the time, and leaves the game itself as it is
+	 */
+	public Solver(Game game) {
+		this.game = game;
+		this.maxDepth = game.max_depth();
+		this.boardSize = 1 << maxDepth;
+		this.table = new long[1 << 20];
+	}
+
+	/**
+	 * @param width the beam width of the first search, doubled for every search
+	 *              after it
+	 */
+	public void setBeamWidth(int width) {
+		this.beamWidth = Math.max(1, width);
+	}
+
+	/**
+	 * @param allowed true to plan a smash as the last move
+	 */
+	public void setSmashAllowed(boolean allowed) {
+		this.smashAllowed = allowed;
+	}
+
+	/**
+	 * Searches for the best sequence of at most maxMoves moves from the game's
+	 * current board
+	 *
+	 * @param maxMoves     the most moves in a sequence
+	 * @param budgetMillis the time to search for
+	 * @return the best sequence found and the statistics of the search
+	 */
+	public Result solve(int maxMoves, long budgetMillis) {
+		long start = System.nanoTime();
+		long deadline = start + budgetMillis * 1_000_000L;
+		evaluated = 0;
+		lookups = 0;
+		hits = 0;
+		board = PersistentGame.of(game);
+		long boardHash = game.board_hash();
+		PersistentGame.Node root = board.rootNode();
+		best = new State(root, score(root), null, null);
+		bestScore = best.score;
+		bestSmash = null;
+
+		int width = beamWidth;
+		int searches = 0;
+		boolean exhausted = false;
+		while (!exhausted && (searches == 0 || System.nanoTime() < deadline)) {
+			exhausted = beamSearch(width, maxMoves, deadline);
+			searches++;
+			width *= 2;
+		}
+
+		List<Move> moves = new ArrayList<Move>();
+		if (bestSmash != null) {
+			moves.add(bestSmash);
+		}
+		for (State s = bestSmash != null ? bestSmashFrom : best; s.move != null; s = s.parent) {
+			moves.add(s.move);
+		}
+		Collections.reverse(moves);
+		return new Result(moves, bestScore, score(root), boardHash, evaluated, System.nanoTime() - start, lookups,
+				hits, width / 2);
+	}
+
+	/**
+	 * Runs one beam search from the starting board
+	 *
+	 * @return true if no beam was ever full, so a wider one would find nothing
+	 *         more
+	 */
+	private boolean beamSearch(int width, int maxMoves, long deadline) {
+		Arrays.fill(table, 0L);
+		List<State> beam = new ArrayList<State>();
+		beam.add(new State(board.rootNode(), score(board.rootNode()), null, null));
+		seen(board.rootNode().hash);
+		boolean full = false;
+
+		for (int move = 0; move < maxMoves && !beam.isEmpty(); move++) {
+			candidateCount = 0;
+			for (int s = 0; s < beam.size(); s++) {
+				if (System.nanoTime() > deadline) {
+					return false;
+				}
+				expand(beam.get(s), s);
+			}
+
+			// keep the best scoring candidates whose boards have not been seen
+			for (int c = 0; c < candidateCount; c++) {
+				candidateOrder[c] = (long) candidateScore[c] << 32 | c;
+			}
+			Arrays.sort(candidateOrder, 0, candidateCount);
+			List<State> next = new ArrayList<State>();
+			for (int i = candidateCount - 1; i >= 0 && next.size() < width; i--) {
+				int c = (int) candidateOrder[i];
+				State from = beam.get(candidateFrom[c]);
+				PersistentGame.Node root;
+				Move m;
+				if (candidateType[c] == Move.ROTATE) {
+					root = board.rotated(from.root, candidatePath[c], candidateDepth[c]);
+					m = new Move(Move.ROTATE, candidateId[c], -1);
+				} else {
+					root = board.swapped(from.root, candidatePath[c], candidateOtherPath[c], candidateDepth[c]);
+					m = new Move(Move.SWAP, candidateId[c], candidateOther[c]);
+				}
+				if (seen(root.hash)) {
+					continue;
+				}
+				State s = new State(root, score(root), from, m);
+				next.add(s);
+				if (s.score > bestScore) {
+					best = s;
+					bestScore = s.score;
+					bestSmash = null;
+				}
+			}
+			full |= next.size() == width;
+			beam = next;
+		}
+		return !full;
+	}
+
+	/**
+	 * Scores every move on the board of s that could change the score, adding
+	 * rotates and swaps to the candidates and keeping track of the best smash
+	 *
+	 * @param s    a board of the beam
+	 * @param from its index in the beam
+	 */
+	private void expand(State s, int from) {
+		int count = index(s.root);
+		int levelStart = 0;
+		for (int i = 0; i < count; i++) {
+			if (depths[i] != depths[levelStart]) {
+				levelStart = i;
+			}
+			if (edges[i] == 0) {
+				continue;
+			}
+			PersistentGame.Node n = nodes[i];
+
+			if (!n.isLeaf()) {
+				// the rotated block's edges come from its children in their new places
+				PersistentGame.Node[] k = n.kids;
+				int rotated = edgeSum(k[3].top + k[0].top, k[0].right + k[1].right, k[1].bottom + k[2].bottom,
+						k[2].left + k[3].left, edges[i]);
+				evaluated++;
+				int delta = rotated - edgeSum(n, edges[i]);
+				if (delta != 0) {
+					addCandidate(from, Move.ROTATE, i, -1, s.score + delta);
+				}
+			} else if (smashAllowed && depths[i] < maxDepth) {
+				// the two children along each of the leaf's edges are each of the target
+				// color with the same chance as any other
+				double expected = s.score - edgeSum(n, edges[i])
+						+ Integer.bitCount(edges[i]) * (double) sizes[i] / IBlock.COLORS.length;
+				evaluated++;
+				if (expected > bestScore) {
+					bestScore = expected;
+					bestSmash = new Move(Move.SMASH, i, -1);
+					bestSmashFrom = s;
+				}
+			}
+
+			// swap with every other block of the same depth, once a pair when both are
+			// on an edge
+			if (depths[i] == 0) {
+				continue;
+			}
+			for (int j = levelStart; j < count && depths[j] == depths[i]; j++) {
+				if (j == i || (edges[j] != 0 && j < i) || nodes[j].hash == n.hash) {
+					continue;
+				}
+				evaluated++;
+				int delta = edgeSum(nodes[j], edges[i]) - edgeSum(n, edges[i]) + edgeSum(n, edges[j])
+						- edgeSum(nodes[j], edges[j]);
+				if (delta != 0) {
+					addCandidate(from, Move.SWAP, i, j, s.score + delta);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists the blocks under root in bfs order with their paths, depths, widths
+	 * and the edges of the board they lie on
+	 *
+	 * @return the number of blocks
+	 */
+	private int index(PersistentGame.Node root) {
+		int count = root.blocks;
+		if (nodes.length < count) {
+			int n = Math.max(count, nodes.length * 2);
+			nodes = new PersistentGame.Node[n];
+			paths = new long[n];
+			depths = new int[n];
+			sizes = new int[n];
+			edges = new int[n];
+			xs = new int[n];
+			ys = new int[n];
+		}
+		nodes[0] = root;
+		xs[0] = 0;
+		ys[0] = 0;
+		paths[0] = 0L;
+		depths[0] = 0;
+		sizes[0] = boardSize;
+		int added = 1;
+		for (int i = 0; i < added; i++) {
+			int size = sizes[i];
+			edges[i] = (ys[i] == 0 ? TOP : 0) | (xs[i] + size == boardSize ? RIGHT : 0)
+					| (ys[i] + size == boardSize ? BOTTOM : 0) | (xs[i] == 0 ? LEFT : 0);
+			if (nodes[i].isLeaf()) {
+				continue;
+			}
+			int half = size / 2;
+			for (int slot = 0; slot < 4; slot++) {
+				nodes[added] = nodes[i].kids[slot];
+				paths[added] = paths[i] | (long) slot << (2 * depths[i]);
+				depths[added] = depths[i] + 1;
+				sizes[added] = half;
+				xs[added] = slot == 1 || slot == 2 ? xs[i] + half : xs[i];
+				ys[added] = slot == 2 || slot == 3 ? ys[i] + half : ys[i];
+				added++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds a candidate move of the block at index i, and the one at index j for a
+	 * swap, of the board at index from of the beam
+	 */
+	private void addCandidate(int from, byte type, int i, int j, int score) {
+		if (candidateCount == candidateFrom.length) {
+			int n = candidateCount * 2;
+			candidateFrom = Arrays.copyOf(candidateFrom, n);
+			candidateType = Arrays.copyOf(candidateType, n);
+			candidateId = Arrays.copyOf(candidateId, n);
+			candidateOther = Arrays.copyOf(candidateOther, n);
+			candidatePath = Arrays.copyOf(candidatePath, n);
+			candidateOtherPath = Arrays.copyOf(candidateOtherPath, n);
+			candidateDepth = Arrays.copyOf(candidateDepth, n);
+			candidateScore = Arrays.copyOf(candidateScore, n);
+			candidateOrder = Arrays.copyOf(candidateOrder, n);
+		}
+		int c = candidateCount++;
+		candidateFrom[c] = from;
+		candidateType[c] = type;
+		candidateId[c] = i;
+		candidateOther[c] = j;
+		candidatePath[c] = paths[i];
+		candidateOtherPath[c] = j < 0 ? 0L : paths[j];
+		candidateDepth[c] = depths[i];
+		candidateScore[c] = score;
+	}
+
+	/**
+	 * Looks a board up in the transposition table, adding it if it is not there
+	 *
+	 * @return true if the board has been seen before in this search
+	 */
+	private boolean seen(long hash) {
+		lookups++;
+		if (hash == 0) {
+			hash = 1;
+		}
+		int mask = table.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		// probe a few slots, then let the board take the last one
+		for (int probe = 0; probe < 8; probe++) {
+			int at = (slot + probe) & mask;
+			if (table[at] == hash) {
+				hits++;
+				return true;
+			}
+			if (table[at] == 0) {
+				table[at] = hash;
+				return false;
+			}
+		}
+		table[(slot + 7) & mask] = hash;
+		return false;
+	}
+
+	/**
+	 * @return the perimeter score of the board under root
+	 */
+	private static int score(PersistentGame.Node root) {
+		return root.top + root.right + root.bottom + root.left;
+	}
+
+	/**
+	 * @return the target cells of n along the given edges
+	 */
+	private static int edgeSum(PersistentGame.Node n, int edgeBits) {
+		return edgeSum(n.top, n.right, n.bottom, n.left, edgeBits);
+	}
+
+	private static int edgeSum(int top, int right, int bottom, int left, int edgeBits) {
+		int sum = 0;
+		if ((edgeBits & TOP) != 0) {
+			sum += top;
+		}
+		if ((edgeBits & RIGHT) != 0) {
+			sum += right;
+		}
+		if ((edgeBits & BOTTOM) != 0) {
+			sum += bottom;
+		}
+		if ((edgeBits & LEFT) != 0) {
+			sum += left;
+		}
+		return sum;
+	}
+
+	/**
+	 * A board reached by the search and the move that reached it
+	 */
+	private static class State {
+		final PersistentGame.Node root;
+		final int score;
+		final State parent;
+		final Move move;
+
+		State(PersistentGame.Node root, int score, State parent, Move move) {
+			this.root = root;
+			this.score = score;
+			this.parent = parent;
+			this.move = move;
+		}
+	}
+
+	/**
+	 * One move of a solution. Ids are bfs positions of the board the move is made
+	 * on, as Game's are.
+	 */
+	public static class Move {
+		/**
+		 * a swap of the blocks with ids id and other
+		 */
+		public static final byte SWAP = 0;
+		/**
+		 * a rotate of the block with id id
+		 */
+		public static final byte ROTATE = 1;
+		/**
+		 * a smash of the block with id id
+		 */
+		public static final byte SMASH = 2;
+
+		private final byte type;
+		private final int id;
+		private final int other;
+
+		Move(byte type, int id, int other) {
+			this.type = type;
+			this.id = id;
+			this.other = other;
+		}
+
+		/**
+		 * @return SWAP, ROTATE or SMASH
+		 */
+		public byte getType() {
+			return type;
+		}
+
+		/**
+		 * @return the id of the moved block, the first one for a swap
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return the id of the second block of a swap, or -1
+		 */
+		public int getOther() {
+			return other;
+		}
+
+		/**
+		 * Makes this move on game
+		 *
+		 * @param game the game, on the board this move was planned for
+		 */
+		public void apply(IGame game) {
+			if (type == SWAP) {
+				game.swap(id, other);
+			} else if (type == ROTATE) {
+				game.getBlock(id).rotate();
+			} else {
+				game.getBlock(id).smash(game.max_depth());
+			}
+		}
+
+		@Override
+		public String toString() {
+			if (type == SWAP) {
+				return "swap " + id + " " + other;
+			}
+			return (type == ROTATE ? "rotate " : "smash ") + id;
+		}
+	}
+
+	/**
+	 * The best sequence of moves a solve found and the statistics of the search
+	 */
+	public static class Result {
+		private final List<Move> moves;
+		private final double score;
+		private final int startScore;
+		private final long boardHash;
+		private final long evaluated;
+		private final long nanos;
+		private final long lookups;
+		private final long hits;
+		private final int beamWidth;
+
+		Result(List<Move> moves, double score, int startScore, long boardHash, long evaluated, long nanos,
+				long lookups, long hits, int beamWidth) {
+			this.moves = moves;
+			this.score = score;
+			this.startScore = startScore;
+			this.boardHash = boardHash;
+			this.evaluated = evaluated;
+			this.nanos = nanos;
+			this.lookups = lookups;
+			this.hits = hits;
+			this.beamWidth = beamWidth;
+		}
+
+		/**
+		 * @return the best sequence found, in the order to make the moves
+		 */
+		public List<Move> getMoves() {
+			return moves;
+		}
+
+		/**
+		 * @return the perimeter score after the moves, the expected one if they end
+		 *         with a smash
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * @return the perimeter score before the moves
+		 */
+		public int getStartScore() {
+			return startScore;
+		}
+
+		/**
+		 * @param game a game
+		 * @return true if game is on the board the moves were planned from, as far
+		 *         as its board hash can tell
+		 */
+		public boolean isFor(Game game) {
+			return game.board_hash() == boardHash;
+		}
+
+		/**
+		 * Makes the moves on game
+		 *
+		 * @param game the game, on the board the moves were planned from
+		 * @throws IllegalStateException if game has moved on from that board
+		 */
+		public void applyTo(Game game) {
+			if (!isFor(game)) {
+				throw new IllegalStateException("the moves were planned for another board");
+			}
+			for (Move move : moves) {
+				move.apply(game);
+			}
+		}
+
+		/**
+		 * @return the number of candidate moves scored
+		 */
+		public long getEvaluated() {
+			return evaluated;
+		}
+
+		/**
+		 * @return candidate moves scored per second
+		 */
+		public double nodesPerSecond() {
+			return evaluated / (nanos / 1e9);
+		}
+
+		/**
+		 * @return the share of transposition table lookups that found a board seen
+		 *         before
+		 */
+		public double hitRate() {
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+
+		/**
+		 * @return the beam width of the widest search run
+		 */
+		public int getBeamWidth() {
+			return beamWidth;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s score %d -> %.1f, %d nodes, %.0f nodes/s, hit rate %.2f, beam width %d", moves,
+					startScore, score, evaluated, nodesPerSecond(), hitRate(), beamWidth);
+		}
+	}
+
+}
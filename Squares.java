@@ -0,0 +1,290 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import javax.swing.*;
+
+/**
+ * @author ericfouh
+ */
+class Squares
+    extends JPanel
+{
+    /**
+     * 
+     */
+    private static final long  serialVersionUID = 1L;
+    private static final int   PREF_W           = 500;
+    private static final int   PREF_H           = PREF_W;
+    private static final int   BOARD_W          = 400;
+    // the retained scene: one node per block of the tree on display, shaped
+    // like the tree so a touched subtree can be found and rebuilt alone
+    private ColoredBlock       scene;
+    private double             scale;
+    // in buffered mode the scene is instead the leaves, drawn once into image
+    // and redrawn only where blocks are touched
+    private boolean            buffered;
+    private BufferedImage      image;
+    private IBlock             root;
+
+
+    /**
+     * Switches between drawing every block as a polygon on each paint, and
+     * drawing only the leaves, as rectangles, into a cached image that each
+     * paint copies to the screen. The buffered mode keeps no node per block,
+     * so it suits deep boards
+     * @param buffered true to draw through the cached image
+     */
+    public void setBuffered(boolean buffered)
+    {
+        this.buffered = buffered;
+        addQuadrant(this.root);
+        repaint();
+    }
+
+
+    /**
+     * @return true if the board is drawn through a cached image
+     */
+    public boolean isBuffered()
+    {
+        return this.buffered;
+    }
+
+
+    /**
+     * Replaces the scene with the tree under q
+     * @param q the root of the quad tree to be displayed
+     */
+    public void addQuadrant(IBlock q)
+    {
+        if (q != null)
+        {
+            // the root spans 2^max_depth units, scale it to BOARD_W pixels
+            this.scale = (double)BOARD_W
+                / (Block.x1(q) - Block.x0(q));
+            this.root = q;
+            if (this.buffered)
+            {
+                this.scene = null;
+                this.image = new BufferedImage(BOARD_W + 1, BOARD_W + 1,
+                    BufferedImage.TYPE_INT_RGB);
+                Graphics2D g2 = this.image.createGraphics();
+                drawLeaves(g2, q);
+                // the outline of the board, on its right and bottom edges, is
+                // all the polygons' outlines that the leaves do not cover
+                g2.setColor(Color.BLACK);
+                g2.drawLine(BOARD_W, 0, BOARD_W, BOARD_W);
+                g2.drawLine(0, BOARD_W, BOARD_W, BOARD_W);
+                g2.dispose();
+            }
+            else
+            {
+                this.image = null;
+                this.scene = build(q);
+            }
+        }
+    }
+
+
+    /**
+     * Fills the leaves under q into the cached image
+     */
+    private void drawLeaves(Graphics2D g2, IBlock q)
+    {
+        if (q.getTopLeftTree() != null)
+        {
+            drawLeaves(g2, q.getTopLeftTree());
+            drawLeaves(g2, q.getTopRightTree());
+            drawLeaves(g2, q.getBotLeftTree());
+            drawLeaves(g2, q.getBotRightTree());
+            return;
+        }
+        int x1 = (int)Math.round(Block.x0(q) * this.scale);
+        int y1 = (int)Math.round(Block.y0(q) * this.scale);
+        int x2 = (int)Math.round(Block.x1(q) * this.scale);
+        int y2 = (int)Math.round(Block.y1(q) * this.scale);
+        g2.setColor(q.getColor());
+        g2.fillRect(x1, y1, x2 - x1, y2 - y1);
+    }
+
+
+    /**
+     * Rebuilds the part of the scene showing q, leaving the rest as it is
+     * @param q a block of the tree on display
+     * @return the area to repaint, or null if nothing changed
+     */
+    Rectangle updateQuadrant(IBlock q)
+    {
+        if (q != null && this.image != null)
+        {
+            // the leaves under q cover its whole area, so redrawing them is
+            // all it takes
+            Graphics2D g2 = this.image.createGraphics();
+            drawLeaves(g2, q);
+            g2.dispose();
+            int x1 = (int)Math.round(Block.x0(q) * this.scale);
+            int y1 = (int)Math.round(Block.y0(q) * this.scale);
+            int x2 = (int)Math.round(Block.x1(q) * this.scale);
+            int y2 = (int)Math.round(Block.y1(q) * this.scale);
+            return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+        }
+        if (q == null || this.scene == null)
+        {
+            return null;
+        }
+
+        // walk down to the node at q's place, choosing at each level the child
+        // whose quarter holds q's center
+        int cx = (int)Math.round(
+            (Block.x0(q) + Block.x1(q)) * this.scale / 2);
+        int cy = (int)Math.round(
+            (Block.y0(q) + Block.y1(q)) * this.scale / 2);
+        ColoredBlock parent = null;
+        int slot = -1;
+        ColoredBlock node = this.scene;
+        for (int depth = 0; depth < q.depth(); depth++)
+        {
+            if (node.getChildren() == null)
+            {
+                // the scene no longer matches the tree above q, so start over
+                return null;
+            }
+            Rectangle r = node.getBounds();
+            boolean right = cx >= r.x + r.width / 2;
+            boolean bottom = cy >= r.y + r.height / 2;
+            // children are kept in the order top left, top right, bottom
+            // left, bottom right
+            slot = (bottom ? 2 : 0) + (right ? 1 : 0);
+            parent = node;
+            node = node.getChildren()[slot];
+        }
+
+        ColoredBlock rebuilt = build(q);
+        if (parent == null)
+        {
+            this.scene = rebuilt;
+        }
+        else
+        {
+            parent.getChildren()[slot] = rebuilt;
+        }
+
+        // the outline is drawn one pixel past the bounds on the right and
+        // bottom
+        Rectangle dirty = rebuilt.getBounds().union(node.getBounds());
+        dirty.width++;
+        dirty.height++;
+        return dirty;
+    }
+
+
+    /**
+     * @param q a block of the quad tree to be displayed
+     * @return the scene node of q and its subtree
+     */
+    private ColoredBlock build(IBlock q)
+    {
+        int x1 = (int)Math.round(Block.x0(q) * this.scale);
+        int y1 = (int)Math.round(Block.y0(q) * this.scale);
+        int x2 = (int)Math.round(Block.x1(q) * this.scale);
+        int y2 = (int)Math.round(Block.y1(q) * this.scale);
+        Polygon p = new Polygon();
+        p.addPoint(x1, y1);
+        p.addPoint(x2, y1);
+        p.addPoint(x2, y2);
+        p.addPoint(x1, y2);
+
+        ColoredBlock[] children = null;
+        if (q.getTopLeftTree() != null)
+        {
+            children = new ColoredBlock[] { build(q.getTopLeftTree()),
+                build(q.getTopRightTree()), build(q.getBotLeftTree()),
+                build(q.getBotRightTree()) };
+        }
+        return new ColoredBlock(p, q.getColor(), children);
+    }
+
+
+    /**
+     * @return the number of blocks in the scene
+     */
+    int sceneSize()
+    {
+        return size(this.scene);
+    }
+
+
+    private static int size(ColoredBlock node)
+    {
+        if (node == null)
+        {
+            return 0;
+        }
+        int n = 1;
+        if (node.getChildren() != null)
+        {
+            for (ColoredBlock child : node.getChildren())
+            {
+                n += size(child);
+            }
+        }
+        return n;
+    }
+
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        return new Dimension(PREF_W, PREF_H);
+    }
+
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D)g;
+        if (this.image != null)
+        {
+            // the clip limits the copy to the dirty area
+            g2.drawImage(this.image, 0, 0, null);
+            return;
+        }
+        paint(g2, this.scene, g2.getClipBounds());
+    }
+
+
+    /**
+     * Paints node and then its children over it, skipping every subtree that
+     * lies outside the clip
+     */
+    private static void paint(Graphics2D g2, ColoredBlock node, Rectangle clip)
+    {
+        if (node == null)
+        {
+            return;
+        }
+        Rectangle r = node.getBounds();
+        if (clip != null
+            && !clip.intersects(r.x, r.y, r.width + 1, r.height + 1))
+        {
+            return;
+        }
+        g2.setColor(Color.BLACK);
+        g2.drawPolygon(node.getPolygon());
+        g2.setColor(node.getColor());
+        g2.fillPolygon(node.getPolygon());
+        if (node.getChildren() != null)
+        {
+            for (ColoredBlock child : node.getChildren())
+            {
+                paint(g2, child, clip);
+            }
+        }
+    }
+
+}
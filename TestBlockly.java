@@ -18,14 +18,16 @@ public class TestBlockly
      * @param in Scanner
      * @param game the game instance
      * @param root the root of the tree of blocks
+     * @return the blocks now at the swapped places, to be redrawn
      */
-    public static void swap_operation(Scanner in, IGame game, IBlock root)
+    public static IBlock[] swap_operation(Scanner in, IGame game, IBlock root)
     {
         System.out.println("ID of first block to swap");
         int id = in.nextInt();
         System.out.println("ID of second block to swap");
         int id2 = in.nextInt();
         game.swap( id, id2);
+        return new IBlock[] { game.getBlock(id), game.getBlock(id2) };
     }
 
 
@@ -34,14 +36,16 @@ public class TestBlockly
      * @param in Scanner
      * @param game the game instance
      * @param root the root of the tree of blocks
+     * @return the rotated block, to be redrawn
      */
-    public static void rotate_operation(Scanner in, IGame game, IBlock root)
+    public static IBlock[] rotate_operation(Scanner in, IGame game, IBlock root)
     {
         System.out.println("ID of block to rotate");
         int id = in.nextInt();
         IBlock b = game.getBlock(id);
-        if(b==null) {return;}
+        if(b==null) {return new IBlock[0];}
         b.rotate();
+        return new IBlock[] { b };
     }
 
 
@@ -50,15 +54,17 @@ public class TestBlockly
      * @param in Scanner
      * @param game the game instance
      * @param root the root of the tree of blocks
+     * @return the smashed block, to be redrawn
      */
-    public static void smash_operation(Scanner in, IGame game, IBlock root)
+    public static IBlock[] smash_operation(Scanner in, IGame game, IBlock root)
     {
         System.out.println("ID of block to smash");
         // in = new Scanner(System.in);
         int id = in.nextInt();
         IBlock b = game.getBlock(id);
-        if(b==null) {return;}
+        if(b==null) {return new IBlock[0];}
         b.smash(game.max_depth()); // pass max depth variable
+        return new IBlock[] { b };
     }
 
 
@@ -96,17 +102,15 @@ public class TestBlockly
             id = in.nextInt();
             switch (id)
             {
+                // redraw only the blocks the operation touched
                 case 1:
-                    swap_operation(in, board, root);
-                    game.refresh_board(root);
+                    game.refresh_blocks(swap_operation(in, board, root));
                     break;
                 case 2:
-                    rotate_operation(in, board, root);
-                    game.refresh_board(root);
+                    game.refresh_blocks(rotate_operation(in, board, root));
                     break;
                 case 3:
-                    smash_operation(in, board, root);
-                    game.refresh_board(root);
+                    game.refresh_blocks(smash_operation(in, board, root));
                     break;
                 default:
                     break;
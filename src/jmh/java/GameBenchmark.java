@@ -0,0 +1,169 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * The boards and operations of {@link Game} and {@link Block} timed by the JMH
+ * benchmarks in src/jmh/java/benchmarks. Those have to live in a named package,
+ * which can't see the classes of this default package, so they create a
+ * GameBenchmark by reflection and get one LongSupplier per operation from it.
+ * Each supplier runs its operation once every time it is called, and any setup
+ * the operation needs is done when the supplier is made, outside the timing.
+ *
+ * Swaps are drawn between blocks of the same depth and rotates among internal
+ * blocks, so that every timed move changes the board. Each smash needs a leaf
+ * above max depth that has not been smashed yet, so smashes are timed in
+ * batches set up by {@link #setUpBatch(int)}.
+ *
+ * @author clairewalker
+ *
+ */
+public class GameBenchmark {
+	private final int maxDepth;
+	private final Random rnd = new Random(1);
+	private final Game game;
+	private final int blocks;
+	// the first block id of each depth, and one past the last id of the deepest
+	private final int[] levelStart;
+	private final IBlock[] internal;
+	private IBlock[] toSmash = new IBlock[0];
+	private int toSmashCount;
+
+	/**
+	 * @param maxDepth the max depth of the boards to run the operations on
+	 */
+	public GameBenchmark(int maxDepth) {
+		this.maxDepth = maxDepth;
+		this.game = new Game(maxDepth, Color.BLUE, 1L);
+
+		// block ids are in bfs order, so the blocks of each depth have a range of ids
+		// of their own. swaps of blocks of the same depth keep every range as it is
+		List<IBlock> bfs = new ArrayList<IBlock>(game.bfs());
+		blocks = bfs.size();
+		levelStart = new int[bfs.get(blocks - 1).depth() + 2];
+		for (int id = blocks - 1; id >= 0; id--) {
+			levelStart[bfs.get(id).depth()] = id;
+		}
+		levelStart[levelStart.length - 1] = blocks;
+
+		// rotates only reorder the children of a block, so the same blocks stay
+		// internal
+		List<IBlock> internalBlocks = new ArrayList<IBlock>();
+		for (IBlock b : bfs) {
+			if (!b.isleaf()) {
+				internalBlocks.add(b);
+			}
+		}
+		internal = internalBlocks.toArray(new IBlock[0]);
+	}
+
+	/**
+	 * @return Game.random_init, drawing a new board each call
+	 */
+	public LongSupplier randomInit() {
+		return () -> game.random_init().depth();
+	}
+
+	/**
+	 * @return Game.getBlock of a random id
+	 */
+	public LongSupplier getBlock() {
+		return () -> game.getBlock(rnd.nextInt(blocks)).depth();
+	}
+
+	/**
+	 * @return Game.swap of two different blocks of the same depth below the root
+	 */
+	public LongSupplier swap() {
+		return () -> {
+			int depth = 1 + rnd.nextInt(levelStart.length - 2);
+			int start = levelStart[depth];
+			int count = levelStart[depth + 1] - start;
+			int a = rnd.nextInt(count);
+			int b = (a + 1 + rnd.nextInt(count - 1)) % count;
+			game.swap(start + a, start + b);
+			return a;
+		};
+	}
+
+	/**
+	 * @return Block.rotate of a random internal block
+	 */
+	public LongSupplier rotate() {
+		return () -> {
+			IBlock block = internal[rnd.nextInt(internal.length)];
+			block.rotate();
+			return block.depth();
+		};
+	}
+
+	/**
+	 * @return Block.smash of the next leaf of the batch set up by
+	 *         {@link #setUpBatch(int)}
+	 */
+	public LongSupplier smash() {
+		return () -> {
+			IBlock leaf = toSmash[--toSmashCount];
+			toSmash[toSmashCount] = null;
+			leaf.smash(maxDepth);
+			return leaf.depth();
+		};
+	}
+
+	/**
+	 * @return Game.flatten
+	 */
+	public LongSupplier flatten() {
+		return () -> game.flatten().length;
+	}
+
+	/**
+	 * @return Game.flatten with parallel flattening on, on a board of its own
+	 */
+	public LongSupplier parallelFlatten() {
+		Game parallel = new Game(maxDepth, Color.BLUE, 1L);
+		parallel.setParallelFlatten(true);
+		return () -> parallel.flatten().length;
+	}
+
+	/**
+	 * @return Game.flattenInto a grid allocated once, here
+	 */
+	public LongSupplier flattenInto() {
+		int[] grid = new int[1 << (2 * maxDepth)];
+		return () -> {
+			game.flattenInto(grid);
+			return grid[0];
+		};
+	}
+
+	/**
+	 * @return Game.perimeter_score
+	 */
+	public LongSupplier perimeterScore() {
+		return () -> game.perimeter_score();
+	}
+
+	/**
+	 * Gets leaves ready for a batch of smashes, on fresh boards
+	 *
+	 * @param ops the number of smashes in the batch
+	 */
+	public void setUpBatch(int ops) {
+		if (toSmash.length < ops) {
+			toSmash = new IBlock[ops];
+		}
+		toSmashCount = 0;
+		while (toSmashCount < ops) {
+			Game board = new Game(maxDepth, Color.BLUE, rnd.nextLong());
+			for (IBlock b : board.bfs()) {
+				if (b.isleaf() && b.depth() < maxDepth && toSmashCount < ops) {
+					toSmash[toSmashCount++] = b;
+				}
+			}
+		}
+	}
+
+}
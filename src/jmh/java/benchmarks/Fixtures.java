@@ -0,0 +1,37 @@
+package benchmarks;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Creates the GameBenchmark fixtures and gets their operations. The game
+ * classes are in the default package, which a named package such as this one
+ * can't import, so they are reached by reflection. Only setup goes through
+ * reflection, the timed calls are plain interface calls.
+ *
+ * @author clairewalker
+ *
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param depth the max depth of the boards to run operations on
+	 * @return a new GameBenchmark
+	 */
+	static Object create(int depth) throws ReflectiveOperationException {
+		return Class.forName("GameBenchmark").getConstructor(int.class).newInstance(depth);
+	}
+
+	/**
+	 * @param fixture   a GameBenchmark
+	 * @param operation the name of the GameBenchmark method that makes the
+	 *                  operation's supplier
+	 * @return the supplier, which runs the operation once every time it is called
+	 */
+	static LongSupplier operation(Object fixture, String operation) throws ReflectiveOperationException {
+		return (LongSupplier) fixture.getClass().getMethod(operation).invoke(fixture);
+	}
+
+}
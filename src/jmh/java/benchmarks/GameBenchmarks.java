@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the hot paths of Game and Block that can run back to back on one
+ * board, at max depths 3 to 12, one benchmark per operation. Each call is one
+ * operation of a GameBenchmark and its result goes to JMH's blackhole. Run with
+ * the GC profiler, as <code>gradle jmh</code> does, to get the allocation rate
+ * alongside the times, or from the jar as
+ * <code>java -jar build/libs/blockly-jmh.jar -prof gc</code>.
+ *
+ * @author clairewalker
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GameBenchmarks {
+	@Param({ "3", "4", "5", "6", "7", "8", "9", "10", "11", "12" })
+	public int depth;
+
+	private LongSupplier randomInit;
+	private LongSupplier getBlock;
+	private LongSupplier swap;
+	private LongSupplier rotate;
+	private LongSupplier flatten;
+	private LongSupplier parallelFlatten;
+	private LongSupplier flattenInto;
+	private LongSupplier perimeterScore;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException {
+		Object fixture = Fixtures.create(depth);
+		randomInit = Fixtures.operation(fixture, "randomInit");
+		getBlock = Fixtures.operation(fixture, "getBlock");
+		swap = Fixtures.operation(fixture, "swap");
+		rotate = Fixtures.operation(fixture, "rotate");
+		flatten = Fixtures.operation(fixture, "flatten");
+		parallelFlatten = Fixtures.operation(fixture, "parallelFlatten");
+		flattenInto = Fixtures.operation(fixture, "flattenInto");
+		perimeterScore = Fixtures.operation(fixture, "perimeterScore");
+	}
+
+	@Benchmark
+	public long randomInit() {
+		return randomInit.getAsLong();
+	}
+
+	@Benchmark
+	public long getBlock() {
+		return getBlock.getAsLong();
+	}
+
+	@Benchmark
+	public long swap() {
+		return swap.getAsLong();
+	}
+
+	@Benchmark
+	public long rotate() {
+		return rotate.getAsLong();
+	}
+
+	@Benchmark
+	public long flatten() {
+		return flatten.getAsLong();
+	}
+
+	@Benchmark
+	public long parallelFlatten() {
+		return parallelFlatten.getAsLong();
+	}
+
+	@Benchmark
+	public long flattenInto() {
+		return flattenInto.getAsLong();
+	}
+
+	@Benchmark
+	public long perimeterScore() {
+		return perimeterScore.getAsLong();
+	}
+
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times Block.smash at max depths 3 to 12. A leaf can be smashed only once, so
+ * every iteration is a batch of BATCH smashes of leaves set up before it
+ * starts, and the reported time is that of the whole batch. Divide it by BATCH
+ * for the time of one smash. The GC profiler's gc.alloc.rate.norm is per batch
+ * as well, and also counts the fresh boards the batch's leaves were taken
+ * from, which are allocated between iterations.
+ *
+ * @author clairewalker
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = SmashBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = SmashBenchmark.BATCH)
+@Fork(2)
+public class SmashBenchmark {
+	static final int BATCH = 1000;
+
+	@Param({ "3", "4", "5", "6", "7", "8", "9", "10", "11", "12" })
+	public int depth;
+
+	private Object fixture;
+	private LongSupplier smash;
+	private Method setUpBatch;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ReflectiveOperationException {
+		fixture = Fixtures.create(depth);
+		smash = Fixtures.operation(fixture, "smash");
+		setUpBatch = fixture.getClass().getMethod("setUpBatch", int.class);
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpIteration() throws ReflectiveOperationException {
+		setUpBatch.invoke(fixture, BATCH);
+	}
+
+	@Benchmark
+	public long smash() {
+		return smash.getAsLong();
+	}
+
+}